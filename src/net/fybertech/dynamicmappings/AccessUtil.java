@@ -5,14 +5,21 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import net.minecraft.launchwrapper.Launch;
 
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InnerClassNode;
 import org.objectweb.asm.tree.MethodNode;
 
 public class AccessUtil 
@@ -21,7 +28,7 @@ public class AccessUtil
 	
 	public List<String> accessTransformerFields = new ArrayList<>();
 	public List<String> accessTransformerMethods = new ArrayList<>();
-	public List<String> accessTransformerClasses = new ArrayList<>(); // TODO
+	public List<String> accessTransformerClasses = new ArrayList<>();
 
 	private boolean debug = false;
 	
@@ -69,64 +76,249 @@ public class AccessUtil
 	}
 	
 
-	public void transformDeobfuscatedClass(ClassNode cn)
-	{		
-		for (String transformer : accessTransformerFields) {
-			String[] split = transformer.split(" ");
-			if (split.length != 4) continue;
-			
-			String className = split[0];
-			String fieldName = split[1];
-			String fieldDesc = split[2];
-			int access = 0;
-			try {
-				access = Integer.parseInt(split[3]);
+	/**
+	 * A single F or M transformer line.  A null name or desc matches anything.
+	 */
+	private static class MemberRule
+	{
+		final String name;
+		final String desc;
+		final int access;
+		
+		MemberRule(String name, String desc, int access)
+		{
+			this.name = name.equals("*") ? null : name;
+			this.desc = desc.equals("*") ? null : desc;
+			this.access = access;
+		}
+		
+		boolean matches(String memberName, String memberDesc)
+		{
+			return (name == null || name.equals(memberName)) && (desc == null || desc.equals(memberDesc));
+		}
+	}
+	
+	
+	/**
+	 * Every rule for one class name or class prefix, in config order.
+	 */
+	private static class ClassRules
+	{
+		/** Access from the last C line, or -1 if there wasn't one */
+		int classAccess = -1;
+		final List<MemberRule> fields = new ArrayList<>();
+		final List<MemberRule> methods = new ArrayList<>();
+	}
+	
+	
+	/**
+	 * The transformer lines parsed into rules, indexed by class.
+	 * 
+	 * Lines naming an exact class go in byClass.  Lines whose class ends in
+	 * a '*' (just "*" for every class) are prefix rules, kept separately
+	 * since they have to be checked against every class.
+	 */
+	private static class CompiledRules
+	{
+		final Map<String, ClassRules> byClass = new HashMap<>();
+		final List<String> prefixes = new ArrayList<>();
+		final List<ClassRules> prefixRules = new ArrayList<>();
+		
+		// Sizes of the lists this was compiled from, to notice lines added since
+		int fieldLines;
+		int methodLines;
+		int classLines;
+		
+		ClassRules getOrAdd(String className)
+		{
+			if (className.endsWith("*")) {
+				String prefix = className.substring(0, className.length() - 1);
+				int index = prefixes.indexOf(prefix);
+				if (index >= 0) return prefixRules.get(index);
+				
+				ClassRules rules = new ClassRules();
+				prefixes.add(prefix);
+				prefixRules.add(rules);
+				return rules;
 			}
-			catch (NumberFormatException e) {}
-			if (access < 1) continue;
-			
-			if (!cn.name.equals(className)) continue;
 			
-			boolean wildcardName = fieldName.equals("*");
-			boolean wildcardDesc = fieldDesc.equals("*");
+			ClassRules rules = byClass.get(className);
+			if (rules == null) { rules = new ClassRules(); byClass.put(className, rules); }
+			return rules;
+		}
+		
+		/**
+		 * @return The rules applying to the class, prefix rules first so
+		 * that rules for the exact class take priority.
+		 */
+		List<ClassRules> get(String className)
+		{
+			ClassRules exact = byClass.get(className);
+			if (prefixes.isEmpty()) return exact != null ? Collections.singletonList(exact) : Collections.<ClassRules>emptyList();
 			
-			for (FieldNode field : cn.fields) {
-				if (!field.name.equals(fieldName) && !wildcardName) continue;
-				if (!field.desc.equals(fieldDesc) && !wildcardDesc) continue;
-				field.access = (field.access & ~allAccess) | access;
-				if (debug) System.out.println("Modifying access of " + className + " " + field.name + " " + field.desc);
-			}			
+			List<ClassRules> output = new ArrayList<>(2);
+			for (int n = 0; n < prefixes.size(); n++) {
+				if (className.startsWith(prefixes.get(n))) output.add(prefixRules.get(n));
+			}
+			if (exact != null) output.add(exact);
+			return output;
 		}
+	}
+	
+	
+	private CompiledRules compiled = null;
+	
+	
+	/**
+	 * @return The rules for the current transformer lists, parsing them again
+	 * if lines have been added since they were last parsed.
+	 */
+	private synchronized CompiledRules getCompiledRules()
+	{
+		if (compiled != null && compiled.fieldLines == accessTransformerFields.size() 
+				&& compiled.methodLines == accessTransformerMethods.size() 
+				&& compiled.classLines == accessTransformerClasses.size()) return compiled;
 		
+		CompiledRules rules = new CompiledRules();
+		rules.fieldLines = accessTransformerFields.size();
+		rules.methodLines = accessTransformerMethods.size();
+		rules.classLines = accessTransformerClasses.size();
+		
+		for (String transformer : accessTransformerFields) {
+			String[] split = transformer.split(" ");
+			if (split.length != 4) continue;
+			int access = parseAccess(split[3]);
+			if (access < 1) continue;
+			rules.getOrAdd(split[0]).fields.add(new MemberRule(split[1], split[2], access));
+		}
 		
 		for (String transformer : accessTransformerMethods) {
 			String[] split = transformer.split(" ");
 			if (split.length != 4) continue;
-			
-			String className = split[0];
-			String methodName = split[1];
-			String methodDesc = split[2];
-			int access = 0;
-			try {
-				access = Integer.parseInt(split[3]);
-			}
-			catch (NumberFormatException e) {}
+			int access = parseAccess(split[3]);
 			if (access < 1) continue;
+			rules.getOrAdd(split[0]).methods.add(new MemberRule(split[1], split[2], access));
+		}
+		
+		for (String transformer : accessTransformerClasses) {
+			String[] split = transformer.split(" ");
+			if (split.length != 2) continue;
+			int access = parseAccess(split[1]);
+			if (access < 1) continue;
+			rules.getOrAdd(split[0]).classAccess = access;
+		}
+		
+		compiled = rules;
+		return rules;
+	}
+	
+	
+	private static int parseAccess(String access)
+	{
+		try {
+			return Integer.parseInt(access);
+		}
+		catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+	
+	
+	private int transformMember(List<ClassRules> rules, boolean isField, String className, String name, String desc, int access)
+	{
+		for (ClassRules classRules : rules) {
+			for (MemberRule rule : isField ? classRules.fields : classRules.methods) {
+				if (!rule.matches(name, desc)) continue;
+				access = (access & ~allAccess) | rule.access;
+				if (debug) System.out.println("Modifying access of " + className + " " + name + " " + desc);
+			}
+		}
+		return access;
+	}
+	
+	
+	/**
+	 * @param inner - If the access is from an InnerClasses entry, which unlike
+	 * the class itself can be private or protected.
+	 */
+	private int transformClass(List<ClassRules> rules, String className, int access, boolean inner)
+	{
+		for (ClassRules classRules : rules) {
+			if (classRules.classAccess < 0) continue;
 			
-			if (!cn.name.equals(className)) continue;
-			
-			boolean wildcardName = methodName.equals("*");
-			boolean wildcardDesc = methodDesc.equals("*");
-			
-			for (MethodNode method : cn.methods) {
-				if (!method.name.equals(methodName) && !wildcardName) continue;
-				if (!method.desc.equals(methodDesc) && !wildcardDesc) continue;
-				method.access = (method.access & ~allAccess) | access;
-				if (debug) System.out.println("Modifying access of " + className + " " + method.name + " " + method.desc);
-			}			
+			int newAccess = classRules.classAccess;
+			if (!inner) {
+				if ((newAccess & Opcodes.ACC_PROTECTED) != 0) newAccess = Opcodes.ACC_PUBLIC;
+				else if ((newAccess & Opcodes.ACC_PRIVATE) != 0) newAccess = 0;
+			}
+			access = (access & ~allAccess) | newAccess;
+			if (debug) System.out.println("Modifying access of " + className);
 		}
+		return access;
+	}
+	
+	
+	public void transformDeobfuscatedClass(ClassNode cn)
+	{		
+		CompiledRules compiledRules = getCompiledRules();
+		List<ClassRules> rules = compiledRules.get(cn.name);
 		
+		if (!rules.isEmpty()) {
+			cn.access = transformClass(rules, cn.name, cn.access, false);
+			for (FieldNode field : cn.fields) field.access = transformMember(rules, true, cn.name, field.name, field.desc, field.access);
+			for (MethodNode method : cn.methods) method.access = transformMember(rules, false, cn.name, method.name, method.desc, method.access);
+		}
 		
+		// Any class can list an inner class whose access was changed
+		for (InnerClassNode icn : cn.innerClasses) {
+			List<ClassRules> innerRules = compiledRules.get(icn.name);
+			if (!innerRules.isEmpty()) icn.access = transformClass(innerRules, icn.name, icn.access, true);
+		}
+	}
+	
+	
+	/**
+	 * Returns a visitor that applies the transformers to a class as it's
+	 * visited, and passes it on to cv.  This avoids a separate pass over a
+	 * ClassNode when the class is being visited anyway, such as while
+	 * remapping.
+	 */
+	public ClassVisitor getClassVisitor(ClassVisitor cv)
+	{
+		final CompiledRules compiledRules = getCompiledRules();
+		
+		return new ClassVisitor(Opcodes.ASM5, cv) {
+			String className;
+			List<ClassRules> rules = Collections.emptyList();
+			
+			@Override
+			public void visit(int version, int access, String name, String signature, String superName, String[] interfaces)
+			{
+				className = name;
+				rules = compiledRules.get(name);
+				super.visit(version, transformClass(rules, name, access, false), name, signature, superName, interfaces);
+			}
+			
+			@Override
+			public void visitInnerClass(String name, String outerName, String innerName, int access)
+			{
+				List<ClassRules> innerRules = compiledRules.get(name);
+				if (!innerRules.isEmpty()) access = transformClass(innerRules, name, access, true);
+				super.visitInnerClass(name, outerName, innerName, access);
+			}
+			
+			@Override
+			public FieldVisitor visitField(int access, String name, String desc, String signature, Object value)
+			{
+				return super.visitField(transformMember(rules, true, className, name, desc, access), name, desc, signature, value);
+			}
+			
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions)
+			{
+				return super.visitMethod(transformMember(rules, false, className, name, desc, access), name, desc, signature, exceptions);
+			}
+		};
 	}
 
 	
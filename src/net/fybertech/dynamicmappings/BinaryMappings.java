@@ -0,0 +1,619 @@
+package net.fybertech.dynamicmappings;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.fybertech.dynamicmappings.ParmParser.Parm;
+
+
+/**
+ * Compact binary form of a set of mappings, read straight from a memory
+ * mapped file.
+ *
+ * Layout, all ints big-endian:
+ *
+ * <pre>
+ * Header (32 bytes):  magic, version, string count, class count, field count,
+ *                     method count, string data size, reserved
+ * String offsets:     int[string count + 1] into the string data
+ * String data:        UTF-8 bytes, padded to a multiple of 4
+ * Classes:            {deobf, obf} string IDs, sorted by deobf
+ * Class index:        int[class count] record numbers, sorted by obf
+ * Fields:             {deobf owner, name, desc, obf owner, name, desc}, sorted by deobf
+ * Field index:        int[field count] record numbers, sorted by obf
+ * Methods:            same as fields
+ * Method index:       same as the field index
+ * </pre>
+ *
+ * Strings are stored once each, sorted by their UTF-8 bytes, so comparing
+ * two string IDs gives the same result as comparing the strings.  That lets
+ * every section be binary searched by ID once the strings in a query have
+ * been found in the string table.
+ *
+ * Loading only checks the header, nothing is parsed up front.  Strings are
+ * decoded the first time they're returned and kept after that.
+ */
+public class BinaryMappings
+{
+	private static final int MAGIC = 0x444D4231; // "DMB1"
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+	private final ByteBuffer buffer;
+	private final int stringCount;
+	private final int classCount;
+	private final int fieldCount;
+	private final int methodCount;
+
+	private final int stringOffsets;
+	private final int stringData;
+	private final int classRecords;
+	private final int classIndex;
+	private final int fieldRecords;
+	private final int fieldIndex;
+	private final int methodRecords;
+	private final int methodIndex;
+
+	/** Strings decoded so far */
+	private final String[] strings;
+
+
+	private BinaryMappings(ByteBuffer buffer) throws IOException
+	{
+		this.buffer = buffer;
+
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) throw new IOException("Not a binary mappings file");
+		if (buffer.getInt(4) != FORMAT_VERSION) throw new IOException("Unsupported binary mappings version " + buffer.getInt(4));
+
+		stringCount = buffer.getInt(8);
+		classCount = buffer.getInt(12);
+		fieldCount = buffer.getInt(16);
+		methodCount = buffer.getInt(20);
+		int stringDataSize = buffer.getInt(24);
+
+		stringOffsets = HEADER_SIZE;
+		stringData = stringOffsets + (stringCount + 1) * 4;
+		classRecords = stringData + pad(stringDataSize);
+		classIndex = classRecords + classCount * 8;
+		fieldRecords = classIndex + classCount * 4;
+		fieldIndex = fieldRecords + fieldCount * 24;
+		methodRecords = fieldIndex + fieldCount * 4;
+		methodIndex = methodRecords + methodCount * 24;
+
+		if (methodIndex + methodCount * 4 != buffer.capacity()) throw new IOException("Truncated or corrupt binary mappings file");
+
+		strings = new String[stringCount];
+	}
+
+
+	private static int pad(int size)
+	{
+		return (size + 3) & ~3;
+	}
+
+
+	/**
+	 * Maps a binary mappings file into memory.
+	 */
+	public static BinaryMappings load(File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) throw new IOException("Binary mappings file too large");
+			// The mapping stays valid after the file is closed
+			return new BinaryMappings(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+
+
+	//
+	// Lookups
+	//
+
+	private String getString(int id)
+	{
+		String s = strings[id];
+		if (s != null) return s;
+
+		int start = buffer.getInt(stringOffsets + id * 4);
+		int end = buffer.getInt(stringOffsets + id * 4 + 4);
+		byte[] bytes = new byte[end - start];
+		ByteBuffer view = buffer.duplicate();
+		view.position(stringData + start);
+		view.get(bytes);
+
+		// Racy, but every thread decodes the same string
+		s = new String(bytes, UTF8);
+		strings[id] = s;
+		return s;
+	}
+
+
+	/**
+	 * @return The string's ID, or -1 if it isn't in the file.
+	 */
+	private int findString(String s)
+	{
+		if (s == null) return -1;
+		byte[] bytes = s.getBytes(UTF8);
+
+		int low = 0;
+		int high = stringCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compareString(mid, bytes);
+			if (cmp < 0) low = mid + 1;
+			else if (cmp > 0) high = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+
+
+	private int compareString(int id, byte[] bytes)
+	{
+		int start = stringData + buffer.getInt(stringOffsets + id * 4);
+		int length = buffer.getInt(stringOffsets + id * 4 + 4) - buffer.getInt(stringOffsets + id * 4);
+
+		int common = Math.min(length, bytes.length);
+		for (int n = 0; n < common; n++) {
+			int cmp = (buffer.get(start + n) & 0xFF) - (bytes[n] & 0xFF);
+			if (cmp != 0) return cmp;
+		}
+		return length - bytes.length;
+	}
+
+
+	/**
+	 * Binary searches records of the given size for the key IDs.
+	 *
+	 * @param index - Position of the reverse index to search through, or -1
+	 * to search the records directly.
+	 * @param keyOffset - Offset of the key within each record.
+	 * @return The record number, or -1 if it isn't there.
+	 */
+	private int findRecord(int records, int index, int count, int recordSize, int keyOffset, int... key)
+	{
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int record = index >= 0 ? buffer.getInt(index + mid * 4) : mid;
+			int base = records + record * recordSize + keyOffset;
+
+			int cmp = 0;
+			for (int n = 0; n < key.length && cmp == 0; n++) cmp = compare(buffer.getInt(base + n * 4), key[n]);
+
+			if (cmp < 0) low = mid + 1;
+			else if (cmp > 0) high = mid - 1;
+			else return record;
+		}
+		return -1;
+	}
+
+
+	private static int compare(int a, int b)
+	{
+		return a < b ? -1 : (a > b ? 1 : 0);
+	}
+
+
+	private String findClass(String className, boolean reverse)
+	{
+		int id = findString(className);
+		if (id < 0) return null;
+
+		int record = findRecord(classRecords, reverse ? classIndex : -1, classCount, 8, reverse ? 4 : 0, id);
+		if (record < 0) return null;
+		return getString(buffer.getInt(classRecords + record * 8 + (reverse ? 0 : 4)));
+	}
+
+
+	private MemberRef findMember(int records, int index, int count, String owner, String name, String desc, boolean reverse)
+	{
+		int ownerId = findString(owner);
+		int nameId = findString(name);
+		int descId = findString(desc);
+		if (ownerId < 0 || nameId < 0 || descId < 0) return null;
+
+		int record = findRecord(records, reverse ? index : -1, count, 24, reverse ? 12 : 0, ownerId, nameId, descId);
+		if (record < 0) return null;
+		return getMember(records, record, !reverse);
+	}
+
+
+	private MemberRef getMember(int records, int record, boolean obf)
+	{
+		int base = records + record * 24 + (obf ? 12 : 0);
+		return new MemberRef(getString(buffer.getInt(base)), getString(buffer.getInt(base + 4)), getString(buffer.getInt(base + 8)));
+	}
+
+
+	/** Deobfuscated class -> obfuscated class */
+	public String getClassMapping(String deobfClassName)
+	{
+		return findClass(deobfClassName, false);
+	}
+
+
+	/** Obfuscated class -> deobfuscated class */
+	public String getReverseClassMapping(String obfClassName)
+	{
+		return findClass(obfClassName, true);
+	}
+
+
+	/** Deobfuscated field -> obfuscated field */
+	public MemberRef getFieldMapping(String owner, String name, String desc)
+	{
+		return findMember(fieldRecords, fieldIndex, fieldCount, owner, name, desc, false);
+	}
+
+
+	/** Obfuscated field -> deobfuscated field */
+	public MemberRef getReverseFieldMapping(String owner, String name, String desc)
+	{
+		return findMember(fieldRecords, fieldIndex, fieldCount, owner, name, desc, true);
+	}
+
+
+	/** Deobfuscated method -> obfuscated method */
+	public MemberRef getMethodMapping(String owner, String name, String desc)
+	{
+		return findMember(methodRecords, methodIndex, methodCount, owner, name, desc, false);
+	}
+
+
+	/** Obfuscated method -> deobfuscated method */
+	public MemberRef getReverseMethodMapping(String owner, String name, String desc)
+	{
+		return findMember(methodRecords, methodIndex, methodCount, owner, name, desc, true);
+	}
+
+
+	public int getClassCount()
+	{
+		return classCount;
+	}
+
+
+	public int getFieldCount()
+	{
+		return fieldCount;
+	}
+
+
+	public int getMethodCount()
+	{
+		return methodCount;
+	}
+
+
+	/**
+	 * Adds every mapping in the file to DynamicMappings, in both directions,
+	 * and publishes a new snapshot.  Lets tools use saved mappings instead of
+	 * generating them.
+	 */
+	public void install()
+	{
+		for (int n = 0; n < classCount; n++) {
+			String deobf = getString(buffer.getInt(classRecords + n * 8));
+			String obf = getString(buffer.getInt(classRecords + n * 8 + 4));
+			DynamicMappings.classMappings.put(deobf, obf);
+			DynamicMappings.reverseClassMappings.put(obf, deobf);
+		}
+
+		installMembers(fieldRecords, fieldCount, (MemberMappings)DynamicMappings.fieldMappings, (MemberMappings)DynamicMappings.reverseFieldMappings);
+		installMembers(methodRecords, methodCount, (MemberMappings)DynamicMappings.methodMappings, (MemberMappings)DynamicMappings.reverseMethodMappings);
+
+		DynamicMappings.publishSnapshot();
+	}
+
+
+	private void installMembers(int records, int count, MemberMappings forward, MemberMappings reverse)
+	{
+		for (int n = 0; n < count; n++) {
+			MemberRef deobf = getMember(records, n, false);
+			MemberRef obf = getMember(records, n, true);
+			forward.put(deobf, obf);
+			reverse.put(obf, deobf);
+		}
+	}
+
+
+
+	//
+	// Writing
+	//
+
+	private static final Comparator<byte[]> UTF8_ORDER = new Comparator<byte[]>() {
+		@Override
+		public int compare(byte[] a, byte[] b)
+		{
+			int common = Math.min(a.length, b.length);
+			for (int n = 0; n < common; n++) {
+				int cmp = (a[n] & 0xFF) - (b[n] & 0xFF);
+				if (cmp != 0) return cmp;
+			}
+			return a.length - b.length;
+		}
+	};
+
+
+	/**
+	 * Writes mappings in the binary format.  Only the string table and the
+	 * sorted records are built in memory, each section is written to the
+	 * stream as soon as it's ready.
+	 *
+	 * @param classes - Deobfuscated class -> obfuscated class.
+	 * @param fields - Deobfuscated "owner name desc" -> obfuscated, entries
+	 * that aren't in that format are skipped.
+	 * @param methods - Same as fields.
+	 */
+	public static void write(OutputStream stream, Map<String, String> classes, Map<String, String> fields, Map<String, String> methods) throws IOException
+	{
+		// Copied first, the maps may be concurrent
+		List<String[]> classList = new ArrayList<String[]>(classes.size());
+		for (Map.Entry<String, String> entry : classes.entrySet()) classList.add(new String[] { entry.getKey(), entry.getValue() });
+		List<String[]> fieldList = toMemberList(fields);
+		List<String[]> methodList = toMemberList(methods);
+
+		// Build the sorted string table
+		final Map<String, byte[]> encoded = new HashMap<String, byte[]>();
+		for (String[] list : classList) encode(encoded, list);
+		for (String[] list : fieldList) encode(encoded, list);
+		for (String[] list : methodList) encode(encoded, list);
+
+		List<String> sortedStrings = new ArrayList<String>(encoded.keySet());
+		Collections.sort(sortedStrings, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b)
+			{
+				return UTF8_ORDER.compare(encoded.get(a), encoded.get(b));
+			}
+		});
+
+		Map<String, Integer> ids = new HashMap<String, Integer>(sortedStrings.size() * 2);
+		for (int n = 0; n < sortedStrings.size(); n++) ids.put(sortedStrings.get(n), n);
+
+		int[][] classRecords = toRecords(classList, ids);
+		int[][] fieldRecords = toRecords(fieldList, ids);
+		int[][] methodRecords = toRecords(methodList, ids);
+
+		int stringDataSize = 0;
+		for (String string : sortedStrings) stringDataSize += encoded.get(string).length;
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 65536));
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT_VERSION);
+		out.writeInt(sortedStrings.size());
+		out.writeInt(classRecords.length);
+		out.writeInt(fieldRecords.length);
+		out.writeInt(methodRecords.length);
+		out.writeInt(stringDataSize);
+		out.writeInt(0);
+
+		int offset = 0;
+		for (String string : sortedStrings) { out.writeInt(offset); offset += encoded.get(string).length; }
+		out.writeInt(offset);
+		for (String string : sortedStrings) out.write(encoded.get(string));
+		for (int n = stringDataSize; n < pad(stringDataSize); n++) out.write(0);
+
+		writeSection(out, classRecords, 1);
+		writeSection(out, fieldRecords, 3);
+		writeSection(out, methodRecords, 3);
+
+		out.flush();
+	}
+
+
+	private static List<String[]> toMemberList(Map<String, String> members)
+	{
+		List<String[]> output = new ArrayList<String[]>(members.size());
+		for (Map.Entry<String, String> entry : members.entrySet()) {
+			MemberRef deobf = MemberRef.parse(entry.getKey());
+			MemberRef obf = MemberRef.parse(entry.getValue());
+			if (deobf == null || obf == null) continue;
+			output.add(new String[] { deobf.owner, deobf.name, deobf.desc, obf.owner, obf.name, obf.desc });
+		}
+		return output;
+	}
+
+
+	private static void encode(Map<String, byte[]> encoded, String[] strings)
+	{
+		for (String s : strings) {
+			if (!encoded.containsKey(s)) encoded.put(s, s.getBytes(UTF8));
+		}
+	}
+
+
+	private static int[][] toRecords(List<String[]> list, Map<String, Integer> ids)
+	{
+		int[][] records = new int[list.size()][];
+		for (int n = 0; n < records.length; n++) {
+			String[] strings = list.get(n);
+			records[n] = new int[strings.length];
+			for (int i = 0; i < strings.length; i++) records[n][i] = ids.get(strings[i]);
+		}
+		return records;
+	}
+
+
+	/**
+	 * Writes records sorted by their first half, followed by the index of
+	 * them sorted by their second half.
+	 *
+	 * @param keySize - Number of IDs in each half.
+	 */
+	private static void writeSection(DataOutputStream out, final int[][] records, final int keySize) throws IOException
+	{
+		Arrays.sort(records, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] a, int[] b)
+			{
+				return compareKeys(a, b, 0, keySize);
+			}
+		});
+
+		Integer[] index = new Integer[records.length];
+		for (int n = 0; n < index.length; n++) index[n] = n;
+		Arrays.sort(index, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				int cmp = compareKeys(records[a], records[b], keySize, keySize);
+				return cmp != 0 ? cmp : a.compareTo(b);
+			}
+		});
+
+		for (int[] record : records) {
+			for (int id : record) out.writeInt(id);
+		}
+		for (int n : index) out.writeInt(n);
+	}
+
+
+	private static int compareKeys(int[] a, int[] b, int start, int size)
+	{
+		for (int n = start; n < start + size; n++) {
+			if (a[n] != b[n]) return a[n] < b[n] ? -1 : 1;
+		}
+		return 0;
+	}
+
+
+	/**
+	 * Writes the current contents of DynamicMappings in the binary format.
+	 */
+	public static void writeCurrent(File file) throws IOException
+	{
+		OutputStream out = new FileOutputStream(file);
+		try {
+			write(out, DynamicMappings.classMappings, DynamicMappings.fieldMappings, DynamicMappings.methodMappings);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+
+
+	//
+	// Text conversion
+	//
+
+	/**
+	 * Writes the mappings in the same layout as currentmappings.txt.
+	 */
+	public void writeText(PrintWriter writer)
+	{
+		writer.println("\nCLASSES:");
+		for (int n = 0; n < classCount; n++) {
+			writer.println(getString(buffer.getInt(classRecords + n * 8)) + " -> " + getString(buffer.getInt(classRecords + n * 8 + 4)));
+		}
+
+		writer.println("\nFIELDS:");
+		for (int n = 0; n < fieldCount; n++) writer.println(getMember(fieldRecords, n, false) + " -> " + getMember(fieldRecords, n, true));
+
+		writer.println("\nMETHODS:");
+		for (int n = 0; n < methodCount; n++) writer.println(getMember(methodRecords, n, false) + " -> " + getMember(methodRecords, n, true));
+	}
+
+
+	/**
+	 * Reads mappings written in the currentmappings.txt layout and writes
+	 * them in the binary format.  Lines outside of the CLASSES, FIELDS and
+	 * METHODS sections are ignored.
+	 */
+	public static void convertText(BufferedReader reader, OutputStream out) throws IOException
+	{
+		Map<String, String> classes = new LinkedHashMap<String, String>();
+		Map<String, String> fields = new LinkedHashMap<String, String>();
+		Map<String, String> methods = new LinkedHashMap<String, String>();
+		Map<String, String> section = null;
+
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.equals("CLASSES:")) { section = classes; continue; }
+			if (line.equals("FIELDS:")) { section = fields; continue; }
+			if (line.equals("METHODS:")) { section = methods; continue; }
+
+			int arrow = line.indexOf(" -> ");
+			if (section == null || arrow < 0) continue;
+			section.put(line.substring(0, arrow), line.substring(arrow + 4));
+		}
+
+		write(out, classes, fields, methods);
+	}
+
+
+	/**
+	 * Converts between the text and binary formats.
+	 *
+	 * -tobinary input.txt output.bin
+	 * -totext input.bin output.txt
+	 */
+	public static void main(String[] args)
+	{
+		ParmParser pp = new ParmParser();
+		Parm toBinaryParm = pp.addParm("-tobinary", 2);
+		Parm toTextParm = pp.addParm("-totext", 2);
+		pp.processArgs(args);
+
+		try {
+			if (toBinaryParm.found) {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(toBinaryParm.results[0]), UTF8));
+				OutputStream out = new FileOutputStream(toBinaryParm.results[1]);
+				try {
+					convertText(reader, out);
+				}
+				finally {
+					reader.close();
+					out.close();
+				}
+			}
+			else if (toTextParm.found) {
+				BinaryMappings mappings = load(new File(toTextParm.results[0]));
+				PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(toTextParm.results[1]), UTF8));
+				mappings.writeText(writer);
+				writer.close();
+			}
+			else {
+				System.out.println("Usage: -tobinary <input.txt> <output.bin> | -totext <input.bin> <output.txt>");
+			}
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
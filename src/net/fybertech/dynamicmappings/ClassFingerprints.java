@@ -0,0 +1,343 @@
+package net.fybertech.dynamicmappings;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.commons.RemappingClassAdapter;
+
+
+/**
+ * A content hash of every class in a jar that doesn't change when the
+ * obfuscated class names shift between versions, used to match up classes
+ * from one jar with the next.
+ *
+ * Each class is hashed with the names of all classes in the jar replaced by
+ * a placeholder.  The replaced names are kept as the class's references, in
+ * the order they were first seen, so two classes with the same hash only
+ * differ in which jar classes their references point to.
+ *
+ * Debug info and stack map frames aren't part of the hash.
+ */
+public class ClassFingerprints
+{
+	/** Number of classes handed to a worker at once */
+	private static final int BATCH_SIZE = 64;
+
+	private final String[] names;
+	private final Map<String, Integer> ids;
+	private final long[] hashes;
+	/** Class ID -> IDs of the jar classes it references, in order of first use */
+	private final int[][] refs;
+
+
+	private ClassFingerprints(String[] names, long[] hashes, int[][] refs)
+	{
+		this.names = names;
+		this.hashes = hashes;
+		this.refs = refs;
+
+		ids = new HashMap<String, Integer>(names.length * 2);
+		for (int id = 0; id < names.length; id++) ids.put(names[id], id);
+	}
+
+
+	/**
+	 * Fingerprints the specified classes.  Classes that can't be loaded are
+	 * left out.
+	 *
+	 * @param classNames - Names of the classes to hash, usually every class in the jar.
+	 * @param threads - Number of threads to hash classes on.
+	 */
+	public static ClassFingerprints build(Iterable<String> classNames, int threads)
+	{
+		final List<String> names = new ArrayList<String>();
+		final Map<String, Integer> ids = new HashMap<String, Integer>();
+		for (String className : classNames) {
+			if (ids.containsKey(className)) continue;
+			ids.put(className, names.size());
+			names.add(className);
+		}
+
+		final long[] hashes = new long[names.size()];
+		final int[][] refs = new int[names.size()][];
+
+		ExecutorService executor = threads > 1 && names.size() > BATCH_SIZE ? Executors.newFixedThreadPool(threads) : null;
+		try {
+			if (executor == null) {
+				hash(names, ids, 0, names.size(), hashes, refs);
+			}
+			else {
+				List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+				for (int start = 0; start < names.size(); start += BATCH_SIZE) {
+					final int from = start;
+					final int to = Math.min(start + BATCH_SIZE, names.size());
+					tasks.add(new Callable<Void>() {
+						@Override
+						public Void call()
+						{
+							hash(names, ids, from, to, hashes, refs);
+							return null;
+						}
+					});
+				}
+
+				for (Future<Void> future : executor.invokeAll(tasks)) future.get();
+			}
+		} catch (InterruptedException e) {
+			// Classes left unhashed would look like they're missing from the jar
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while fingerprinting classes", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		finally {
+			if (executor != null) executor.shutdown();
+		}
+
+		// Drop anything that couldn't be loaded, renumbering the references to match
+		int[] newIds = new int[names.size()];
+		List<String> keptNames = new ArrayList<String>();
+		for (int id = 0; id < names.size(); id++) {
+			newIds[id] = refs[id] != null ? keptNames.size() : -1;
+			if (refs[id] != null) keptNames.add(names.get(id));
+		}
+		if (keptNames.size() == names.size()) return new ClassFingerprints(names.toArray(new String[0]), hashes, refs);
+
+		long[] keptHashes = new long[keptNames.size()];
+		int[][] keptRefs = new int[keptNames.size()][];
+		for (int id = 0; id < names.size(); id++) {
+			if (newIds[id] < 0) continue;
+
+			int[] old = refs[id];
+			int count = 0;
+			for (int ref : old) if (newIds[ref] >= 0) count++;
+
+			int[] renumbered = new int[count];
+			count = 0;
+			for (int ref : old) if (newIds[ref] >= 0) renumbered[count++] = newIds[ref];
+
+			keptHashes[newIds[id]] = hashes[id];
+			keptRefs[newIds[id]] = renumbered;
+		}
+
+		return new ClassFingerprints(keptNames.toArray(new String[0]), keptHashes, keptRefs);
+	}
+
+
+	private static void hash(List<String> names, Map<String, Integer> ids, int from, int to, long[] hashes, int[][] refs)
+	{
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) { throw new RuntimeException(e); }
+
+		for (int id = from; id < to; id++)
+		{
+			byte[] bytes = DynamicMappings.getClassBytes(names.get(id));
+			if (bytes == null) continue;
+
+			NameCollector collector = new NameCollector(ids);
+			ClassWriter writer = new ClassWriter(0);
+			try {
+				new ClassReader(bytes).accept(new RemappingClassAdapter(writer, collector), ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+			} catch (RuntimeException e) { continue; }
+
+			byte[] sha = digest.digest(writer.toByteArray());
+			long hash = 0;
+			for (int n = 0; n < 8; n++) hash = (hash << 8) | (sha[n] & 0xFF);
+			hashes[id] = hash;
+
+			int[] classRefs = new int[collector.seen.size()];
+			int n = 0;
+			for (int ref : collector.seen) classRefs[n++] = ref;
+			refs[id] = classRefs;
+		}
+	}
+
+
+	/**
+	 * Replaces the names of jar classes with a placeholder, noting each one.
+	 */
+	private static class NameCollector extends Remapper
+	{
+		final Map<String, Integer> ids;
+		final Set<Integer> seen = new LinkedHashSet<Integer>();
+
+		NameCollector(Map<String, Integer> ids)
+		{
+			this.ids = ids;
+		}
+
+		@Override
+		public String map(String typeName)
+		{
+			Integer id = ids.get(typeName);
+			if (id == null) return typeName;
+			seen.add(id);
+			return "-";
+		}
+	}
+
+
+
+	/**
+	 * @return The class's ID, or -1 if it isn't in the jar.
+	 */
+	public int getId(String className)
+	{
+		Integer id = ids.get(className);
+		return id != null ? id : -1;
+	}
+
+
+	public String getName(int id)
+	{
+		return names[id];
+	}
+
+
+	public int size()
+	{
+		return names.length;
+	}
+
+
+	public long getHash(int id)
+	{
+		return hashes[id];
+	}
+
+
+	/**
+	 * @return IDs of the jar classes the class references, in the order
+	 * they're first used.  Don't modify this.
+	 */
+	public int[] getRefs(int id)
+	{
+		return refs[id];
+	}
+
+
+
+	/**
+	 * Works out which class in this jar each class in an older jar became.
+	 *
+	 * Classes are first paired up if they kept both their name and content,
+	 * or if their content is unique to one class in each jar.  From there,
+	 * the references of each pair with the same content are followed, since
+	 * they have to line up as well.  Classes found that way may have changed,
+	 * but still tell us what they were renamed to.
+	 *
+	 * @param old - The older jar's fingerprints.
+	 * @return Old name -> new name, for every class that could be matched.
+	 */
+	public Map<String, String> matchFrom(ClassFingerprints old)
+	{
+		int[] oldToNew = new int[old.names.length];
+		Arrays.fill(oldToNew, -1);
+		boolean[] taken = new boolean[names.length];
+		Deque<Integer> queue = new ArrayDeque<Integer>();
+
+		for (int o = 0; o < old.names.length; o++) {
+			int n = getId(old.names[o]);
+			if (n >= 0 && hashes[n] == old.hashes[o]) pair(o, n, oldToNew, taken, queue);
+		}
+
+		// Content that only one unmatched class has on each side, with -1 for duplicates
+		Map<Long, Integer> oldUnique = new HashMap<Long, Integer>();
+		for (int o = 0; o < old.names.length; o++) {
+			if (oldToNew[o] < 0) oldUnique.put(old.hashes[o], oldUnique.containsKey(old.hashes[o]) ? -1 : o);
+		}
+		Map<Long, Integer> newUnique = new HashMap<Long, Integer>();
+		for (int n = 0; n < names.length; n++) {
+			if (!taken[n]) newUnique.put(hashes[n], newUnique.containsKey(hashes[n]) ? -1 : n);
+		}
+		for (Map.Entry<Long, Integer> entry : oldUnique.entrySet()) {
+			Integer n = newUnique.get(entry.getKey());
+			if (entry.getValue() >= 0 && n != null && n >= 0) pair(entry.getValue(), n, oldToNew, taken, queue);
+		}
+
+		while (!queue.isEmpty())
+		{
+			int o = queue.poll();
+			int n = oldToNew[o];
+			if (hashes[n] != old.hashes[o]) continue;
+
+			int[] oldRefs = old.refs[o];
+			int[] newRefs = refs[n];
+			if (oldRefs.length != newRefs.length) continue;
+
+			for (int i = 0; i < oldRefs.length; i++) {
+				if (oldToNew[oldRefs[i]] < 0 && !taken[newRefs[i]]) pair(oldRefs[i], newRefs[i], oldToNew, taken, queue);
+			}
+		}
+
+		Map<String, String> output = new HashMap<String, String>();
+		for (int o = 0; o < oldToNew.length; o++) {
+			if (oldToNew[o] >= 0) output.put(old.names[o], names[oldToNew[o]]);
+		}
+		return output;
+	}
+
+
+	private static void pair(int o, int n, int[] oldToNew, boolean[] taken, Deque<Integer> queue)
+	{
+		oldToNew[o] = n;
+		taken[n] = true;
+		queue.add(o);
+	}
+
+
+
+	public void write(DataOutputStream out) throws IOException
+	{
+		out.writeInt(names.length);
+		for (int id = 0; id < names.length; id++) {
+			out.writeUTF(names[id]);
+			out.writeLong(hashes[id]);
+			out.writeInt(refs[id].length);
+			for (int ref : refs[id]) out.writeInt(ref);
+		}
+	}
+
+
+	public static ClassFingerprints read(DataInputStream in) throws IOException
+	{
+		int count = in.readInt();
+		String[] names = new String[count];
+		long[] hashes = new long[count];
+		int[][] refs = new int[count][];
+
+		for (int id = 0; id < count; id++) {
+			names[id] = in.readUTF();
+			hashes[id] = in.readLong();
+			refs[id] = new int[in.readInt()];
+			for (int n = 0; n < refs[id].length; n++) {
+				refs[id][n] = in.readInt();
+				if (refs[id][n] < 0 || refs[id][n] >= count) throw new IOException("Bad class reference in fingerprints");
+			}
+		}
+
+		return new ClassFingerprints(names, hashes, refs);
+	}
+}
@@ -0,0 +1,308 @@
+package net.fybertech.dynamicmappings;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.objectweb.asm.ClassReader;
+
+
+/**
+ * Class hierarchy of the whole jar, built once from the class headers.
+ *
+ * Every class gets an integer ID, assigned so that a class's supertypes
+ * always have lower IDs than it does.  Each class also gets a bitset of
+ * its ancestors (itself, its superclasses and every interface it
+ * implements, directly or not), so inheritance checks are a single bit
+ * test rather than a walk up the hierarchy.
+ *
+ * Supertypes from outside the jar, such as java/lang/Object, are loaded
+ * through DynamicMappings.getClassReader and included, so the ancestors
+ * of any class in the hierarchy are always complete.
+ *
+ * The full set of descendants of a class is worked out from the child IDs
+ * the first time it's asked for and kept, so repeated queries for big
+ * hierarchies like blocks or entities don't walk the tree again.
+ */
+public class ClassHierarchy
+{
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+	private final List<String> names = new ArrayList<String>();
+	private final List<Integer> superIds = new ArrayList<Integer>();
+	private final List<int[]> interfaceIds = new ArrayList<int[]>();
+	private final List<BitSet> ancestors = new ArrayList<BitSet>();
+	/** Direct subclasses and implementers of each class, in ID order */
+	private int[][] childIds;
+	/** Every descendant of each class, filled in as they're requested */
+	private AtomicReferenceArray<int[]> descendantIds;
+
+	private static final int[] NO_IDS = new int[0];
+
+
+	private ClassHierarchy()
+	{
+	}
+
+
+	/**
+	 * Builds the hierarchy from the specified classes and all of their supertypes.
+	 *
+	 * @param classNames - Names of the classes to include, usually every class in the jar.
+	 */
+	public static ClassHierarchy build(Iterable<String> classNames)
+	{
+		ClassHierarchy hierarchy = new ClassHierarchy();
+		for (String className : classNames) hierarchy.resolve(className);
+		hierarchy.buildChildren();
+		return hierarchy;
+	}
+
+
+	private void buildChildren()
+	{
+		int[] counts = new int[names.size()];
+		for (int id = 0; id < names.size(); id++) {
+			if (superIds.get(id) >= 0) counts[superIds.get(id)]++;
+			for (int iface : interfaceIds.get(id)) {
+				if (iface >= 0) counts[iface]++;
+			}
+		}
+
+		childIds = new int[names.size()][];
+		for (int id = 0; id < names.size(); id++) childIds[id] = counts[id] > 0 ? new int[counts[id]] : NO_IDS;
+
+		// IDs are visited in order, so each child array ends up sorted
+		int[] filled = new int[names.size()];
+		for (int id = 0; id < names.size(); id++) {
+			int superId = superIds.get(id);
+			if (superId >= 0) childIds[superId][filled[superId]++] = id;
+			for (int iface : interfaceIds.get(id)) {
+				if (iface >= 0) childIds[iface][filled[iface]++] = id;
+			}
+		}
+
+		descendantIds = new AtomicReferenceArray<int[]>(names.size());
+	}
+
+
+	/**
+	 * Assigns an ID to a class, after first assigning IDs to its supertypes.
+	 *
+	 * @return The ID, or -1 if the class is in the middle of being resolved
+	 * (which only happens with a circular hierarchy.)
+	 */
+	private int resolve(String className)
+	{
+		Integer id = ids.get(className);
+		if (id != null) return id;
+
+		// Guards against circular hierarchies in malformed jars
+		ids.put(className, -1);
+
+		String superName = null;
+		String[] interfaces = null;
+
+		ClassReader reader = DynamicMappings.getClassReader(className);
+		if (reader != null) {
+			superName = reader.getSuperName();
+			interfaces = reader.getInterfaces();
+		}
+
+		int superId = superName != null ? resolve(superName) : -1;
+		int[] ifaceIds = NO_IDS;
+		if (interfaces != null && interfaces.length > 0) {
+			ifaceIds = new int[interfaces.length];
+			for (int n = 0; n < interfaces.length; n++) ifaceIds[n] = resolve(interfaces[n]);
+		}
+
+		int newId = names.size();
+		BitSet bits = new BitSet(newId + 1);
+		bits.set(newId);
+		if (superId >= 0) bits.or(ancestors.get(superId));
+		for (int iface : ifaceIds) {
+			if (iface >= 0) bits.or(ancestors.get(iface));
+		}
+
+		names.add(className);
+		superIds.add(superId);
+		interfaceIds.add(ifaceIds);
+		ancestors.add(bits);
+		ids.put(className, newId);
+
+		return newId;
+	}
+
+
+	/**
+	 * @return The class's ID, or -1 if it isn't in the hierarchy.
+	 */
+	public int getId(String className)
+	{
+		Integer id = ids.get(className);
+		return id != null ? id : -1;
+	}
+
+
+	public String getName(int id)
+	{
+		return names.get(id);
+	}
+
+
+	public boolean contains(String className)
+	{
+		return getId(className) >= 0;
+	}
+
+
+	/**
+	 * @return The number of classes in the hierarchy, which is one more than the highest ID.
+	 */
+	public int size()
+	{
+		return names.size();
+	}
+
+
+	/**
+	 * @return The ID of the class's superclass, or -1 if it has none.
+	 */
+	public int getSuperId(int id)
+	{
+		return superIds.get(id);
+	}
+
+
+	/**
+	 * @return The IDs of the class's direct interfaces.  Don't modify this.
+	 */
+	public int[] getInterfaceIds(int id)
+	{
+		return interfaceIds.get(id);
+	}
+
+
+	/**
+	 * @return The IDs of the classes directly extending or implementing the
+	 * class, in ascending order.  Don't modify this.
+	 */
+	public int[] getChildIds(int id)
+	{
+		return childIds[id];
+	}
+
+
+	/**
+	 * @return IDs of every class extending or implementing the class, directly
+	 * or not, in ascending order.  Don't modify this.
+	 */
+	public int[] getDescendantIds(int id)
+	{
+		int[] descendants = descendantIds.get(id);
+		if (descendants != null) return descendants;
+
+		BitSet found = new BitSet(names.size());
+		ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+		queue.add(id);
+
+		while (!queue.isEmpty())
+		{
+			int current = queue.poll();
+			for (int child : childIds[current]) {
+				if (found.get(child)) continue;
+				found.set(child);
+
+				// Reuse anything already worked out instead of walking it again
+				int[] known = descendantIds.get(child);
+				if (known != null) { for (int n : known) found.set(n); }
+				else queue.add(child);
+			}
+		}
+
+		descendants = new int[found.cardinality()];
+		int n = 0;
+		for (int bit = found.nextSetBit(0); bit >= 0; bit = found.nextSetBit(bit + 1)) descendants[n++] = bit;
+
+		// Another thread may have beaten us to it, but the result is the same either way
+		descendantIds.set(id, descendants);
+		return descendants;
+	}
+
+
+	/**
+	 * @return Names of every class extending or implementing the class, directly or not.
+	 */
+	public Set<String> getChildClasses(String className)
+	{
+		int id = getId(className);
+		if (id < 0) return new HashSet<String>();
+		return toNames(getDescendantIds(id));
+	}
+
+
+	/**
+	 * @return Names of the classes directly extending or implementing the class.
+	 */
+	public Set<String> getDirectChildClasses(String className)
+	{
+		int id = getId(className);
+		if (id < 0) return new HashSet<String>();
+		return toNames(childIds[id]);
+	}
+
+
+	private Set<String> toNames(int[] classIds)
+	{
+		Set<String> output = new HashSet<String>(classIds.length * 2);
+		for (int id : classIds) output.add(names.get(id));
+		return output;
+	}
+
+
+	/**
+	 * Checks if a class is the same as, extends, or implements another.
+	 */
+	public boolean isAssignable(int id, int superId)
+	{
+		return ancestors.get(id).get(superId);
+	}
+
+
+	/**
+	 * Checks if a class is the same as, extends, or implements another.
+	 *
+	 * @param className - The class to check, which must be in the hierarchy for
+	 * this to give a meaningful result.
+	 * @param superName - The class or interface that it may inherit from.
+	 */
+	public boolean isAssignable(String className, String superName)
+	{
+		int id = getId(className);
+		int superId = getId(superName);
+		if (id < 0 || superId < 0) return false;
+		return isAssignable(id, superId);
+	}
+
+
+	/**
+	 * Checks if a class extends another, only following superclasses and not
+	 * interfaces.  A class isn't considered its own subclass.
+	 */
+	public boolean isSubclassOf(String className, String superName)
+	{
+		int id = getId(className);
+		int superId = getId(superName);
+		if (id < 0 || superId < 0) return false;
+
+		for (int n = superIds.get(id); n >= 0; n = superIds.get(n)) {
+			if (n == superId) return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,170 @@
+package net.fybertech.dynamicmappings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Class dependencies and inheritance links, found by following constant
+ * pool class references outwards from a set of root classes.
+ *
+ * The crawl runs in waves rather than recursing: every class in the current
+ * wave is parsed in parallel, and any newly referenced classes make up the
+ * next wave.  Classes from library packages (see classSearchExceptions)
+ * are never crawled.
+ *
+ * Classes are merged into the existing maps as they're found, so adding a
+ * few classes later on only costs as much as crawling them.  The maps can't
+ * be modified by callers, but do grow as classes are added.
+ */
+public class ClassLinkages
+{
+	/** Number of classes handed to a worker at once */
+	private static final int BATCH_SIZE = 64;
+
+	/** Class -> classes referenced by its constant pool */
+	public final Map<String, Set<String>> classDeps;
+	/** Superclass -> classes directly extending it */
+	public final Map<String, Set<String>> classesExtendFrom;
+	/** Interface -> classes directly implementing it */
+	public final Map<String, Set<String>> classesImplementFrom;
+
+	private final Map<String, Set<String>> deps = new ConcurrentHashMap<String, Set<String>>();
+	private final Map<String, Set<String>> extendFrom = new ConcurrentHashMap<String, Set<String>>();
+	private final Map<String, Set<String>> implementFrom = new ConcurrentHashMap<String, Set<String>>();
+	/** The modifiable sets behind the values of extendFrom and implementFrom */
+	private final Map<String, Set<String>> extendSets = new HashMap<String, Set<String>>();
+	private final Map<String, Set<String>> implementSets = new HashMap<String, Set<String>>();
+
+	/** Every class that's been crawled or queued to be, so none are parsed twice */
+	private final Set<String> seen = new HashSet<String>();
+
+
+	public ClassLinkages()
+	{
+		classDeps = Collections.unmodifiableMap(deps);
+		classesExtendFrom = Collections.unmodifiableMap(extendFrom);
+		classesImplementFrom = Collections.unmodifiableMap(implementFrom);
+	}
+
+
+	/**
+	 * Crawls outwards from the root classes, adding everything found to the
+	 * linkages.  Classes that have already been crawled aren't parsed again.
+	 *
+	 * If the thread is interrupted the crawl is abandoned with a
+	 * RuntimeException, and classes that hadn't been reached yet are left for
+	 * a later call to pick up.
+	 *
+	 * @param roots - Classes to start from.  Every class in the jar can be
+	 * passed to cover classes that nothing references.
+	 * @param threads - Number of threads to parse classes on.
+	 */
+	public synchronized void add(Iterable<String> roots, int threads)
+	{
+		List<String> wave = new ArrayList<String>();
+		for (String root : roots) {
+			if (seen.add(root) && !DynamicMappings.startsWithAny(root, DynamicMappings.classSearchExceptions)) wave.add(root);
+		}
+		if (wave.isEmpty()) return;
+
+		ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+		try {
+			while (!wave.isEmpty())
+			{
+				List<ConstantPoolIndex> parsed;
+				try {
+					parsed = parse(wave, executor);
+				} catch (InterruptedException e) {
+					seen.removeAll(wave);
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while generating class linkages", e);
+				}
+				wave = new ArrayList<String>();
+
+				for (ConstantPoolIndex index : parsed)
+				{
+					String className = index.className;
+
+					if (index.superName != null) addChild(extendSets, extendFrom, index.superName, className);
+					for (String iface : index.interfaces) addChild(implementSets, implementFrom, iface, className);
+
+					Set<String> classes = index.getClasses(true);
+					deps.put(className, Collections.unmodifiableSet(classes));
+
+					for (String s : classes) {
+						if (seen.add(s) && !DynamicMappings.startsWithAny(s, DynamicMappings.classSearchExceptions)) wave.add(s);
+					}
+				}
+			}
+		}
+		finally {
+			if (executor != null) executor.shutdown();
+		}
+	}
+
+
+	private static void addChild(Map<String, Set<String>> sets, Map<String, Set<String>> views, String parent, String child)
+	{
+		Set<String> set = sets.get(parent);
+		if (set == null) {
+			set = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			sets.put(parent, set);
+			views.put(parent, Collections.unmodifiableSet(set));
+		}
+		set.add(child);
+	}
+
+
+	/**
+	 * @return The indexes of the classes that could be loaded, in the same order.
+	 */
+	private static List<ConstantPoolIndex> parse(List<String> classNames, ExecutorService executor) throws InterruptedException
+	{
+		List<ConstantPoolIndex> output = new ArrayList<ConstantPoolIndex>(classNames.size());
+
+		if (executor == null || classNames.size() <= BATCH_SIZE) {
+			for (String className : classNames) {
+				ConstantPoolIndex index = ConstantPoolIndex.get(className);
+				if (index != null) output.add(index);
+			}
+			return output;
+		}
+
+		List<Callable<List<ConstantPoolIndex>>> tasks = new ArrayList<Callable<List<ConstantPoolIndex>>>();
+		for (int start = 0; start < classNames.size(); start += BATCH_SIZE) {
+			final List<String> batch = classNames.subList(start, Math.min(start + BATCH_SIZE, classNames.size()));
+			tasks.add(new Callable<List<ConstantPoolIndex>>() {
+				@Override
+				public List<ConstantPoolIndex> call()
+				{
+					List<ConstantPoolIndex> indexes = new ArrayList<ConstantPoolIndex>(batch.size());
+					for (String className : batch) {
+						ConstantPoolIndex index = ConstantPoolIndex.get(className);
+						if (index != null) indexes.add(index);
+					}
+					return indexes;
+				}
+			});
+		}
+
+		try {
+			for (Future<List<ConstantPoolIndex>> future : executor.invokeAll(tasks)) output.addAll(future.get());
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+
+		return output;
+	}
+}
@@ -0,0 +1,250 @@
+package net.fybertech.dynamicmappings;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+
+
+/**
+ * Bounded cache of parsed ClassNodes.
+ *
+ * Recently used nodes are held strongly, up to a budget measured in the
+ * size of their class files.  Once over budget the least recently used
+ * nodes are evicted, either dropped outright or demoted to soft references
+ * so they stick around until the heap actually needs the space.  Evicted
+ * classes are parsed again the next time they're requested, optionally from
+ * raw class bytes kept in memory instead of going back to the jar.
+ */
+public class ClassNodeCache
+{
+	private static class Entry
+	{
+		final ClassNode node;
+		final int weight;
+
+		Entry(ClassNode node, int weight)
+		{
+			this.node = node;
+			this.weight = weight;
+		}
+	}
+
+	private static class SoftEntry extends SoftReference<ClassNode>
+	{
+		final String className;
+		final int weight;
+
+		SoftEntry(String className, ClassNode node, int weight, ReferenceQueue<ClassNode> queue)
+		{
+			super(node, queue);
+			this.className = className;
+			this.weight = weight;
+		}
+	}
+
+
+	private final String name;
+	private final int parsingOptions;
+
+	/** Budget for strongly held nodes, in class file bytes */
+	private long maxWeight;
+	private long weight = 0;
+	private boolean softEviction;
+	private boolean keepBytes;
+
+	/** Access ordered, so iteration starts at the least recently used */
+	private final LinkedHashMap<String, Entry> strong = new LinkedHashMap<String, Entry>(256, 0.75f, true);
+	private final Map<String, SoftEntry> soft = new HashMap<String, SoftEntry>();
+	private final ReferenceQueue<ClassNode> queue = new ReferenceQueue<ClassNode>();
+	private final Map<String, byte[]> rawBytes = new HashMap<String, byte[]>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong softHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong collected = new AtomicLong();
+
+
+	/**
+	 * @param name - Used when reporting stats.
+	 * @param parsingOptions - Options passed to ClassReader.accept.
+	 * @param maxWeight - Budget for strongly held nodes, in class file bytes.
+	 * @param softEviction - If true, evicted nodes are kept as soft references.
+	 * @param keepBytes - If true, raw class bytes are kept to rebuild evicted nodes from.
+	 */
+	public ClassNodeCache(String name, int parsingOptions, long maxWeight, boolean softEviction, boolean keepBytes)
+	{
+		this.name = name;
+		this.parsingOptions = parsingOptions;
+		this.maxWeight = maxWeight;
+		this.softEviction = softEviction;
+		this.keepBytes = keepBytes;
+	}
+
+
+	/**
+	 * Gets a class from the cache, loading and parsing it if needed.
+	 *
+	 * @param className - The name of the class, with / separators.
+	 * @return The ClassNode, or null if the class couldn't be found.
+	 */
+	public ClassNode get(String className)
+	{
+		byte[] bytes = null;
+
+		synchronized (this)
+		{
+			Entry entry = strong.get(className);
+			if (entry != null) { hits.incrementAndGet(); return entry.node; }
+
+			expungeCollected();
+			SoftEntry softEntry = soft.remove(className);
+			if (softEntry != null) {
+				ClassNode node = softEntry.get();
+				if (node != null) {
+					softHits.incrementAndGet();
+					putStrong(className, node, softEntry.weight);
+					return node;
+				}
+				collected.incrementAndGet();
+			}
+
+			if (keepBytes) bytes = rawBytes.get(className);
+		}
+
+		misses.incrementAndGet();
+
+		// Parse outside the lock, so other threads aren't held up by it
+		if (bytes == null) bytes = DynamicMappings.getClassBytes(className);
+		if (bytes == null) return null;
+
+		ClassNode node = new ClassNode();
+		try {
+			new ClassReader(bytes).accept(node, parsingOptions);
+		} catch (RuntimeException e) { return null; }
+
+		synchronized (this)
+		{
+			// Another thread may have loaded it in the meantime, so keep whichever got there first
+			Entry existing = strong.get(className);
+			if (existing != null) return existing.node;
+
+			if (keepBytes) rawBytes.put(className, bytes);
+			putStrong(className, node, bytes.length);
+		}
+
+		return node;
+	}
+
+
+	/**
+	 * Gets a class only if it's already cached, without loading it or
+	 * counting towards the stats.
+	 */
+	public synchronized ClassNode peek(String className)
+	{
+		Entry entry = strong.get(className);
+		if (entry != null) return entry.node;
+
+		SoftEntry softEntry = soft.get(className);
+		return softEntry != null ? softEntry.get() : null;
+	}
+
+
+	private void putStrong(String className, ClassNode node, int nodeWeight)
+	{
+		strong.put(className, new Entry(node, nodeWeight));
+		weight += nodeWeight;
+
+		// Always keep the newest entry, even if it's bigger than the budget by itself
+		for (Iterator<Map.Entry<String, Entry>> it = strong.entrySet().iterator(); weight > maxWeight && strong.size() > 1;)
+		{
+			Map.Entry<String, Entry> eldest = it.next();
+			it.remove();
+			weight -= eldest.getValue().weight;
+			evictions.incrementAndGet();
+
+			if (softEviction) soft.put(eldest.getKey(), new SoftEntry(eldest.getKey(), eldest.getValue().node, eldest.getValue().weight, queue));
+		}
+	}
+
+
+	/**
+	 * Removes soft entries whose nodes were collected by the GC.
+	 */
+	private void expungeCollected()
+	{
+		SoftEntry entry;
+		while ((entry = (SoftEntry)queue.poll()) != null) {
+			// The entry may have been replaced since it was queued
+			if (soft.get(entry.className) == entry) soft.remove(entry.className);
+		}
+	}
+
+
+	public synchronized void clear()
+	{
+		strong.clear();
+		soft.clear();
+		rawBytes.clear();
+		weight = 0;
+		while (queue.poll() != null);
+	}
+
+
+	public synchronized void setMaxWeight(long maxWeight)
+	{
+		this.maxWeight = maxWeight;
+	}
+
+
+	public synchronized void setSoftEviction(boolean softEviction)
+	{
+		this.softEviction = softEviction;
+		if (!softEviction) soft.clear();
+	}
+
+
+	public synchronized void setKeepBytes(boolean keepBytes)
+	{
+		this.keepBytes = keepBytes;
+		if (!keepBytes) rawBytes.clear();
+	}
+
+
+	public long getHits() { return hits.get(); }
+	public long getSoftHits() { return softHits.get(); }
+	public long getMisses() { return misses.get(); }
+	public long getEvictions() { return evictions.get(); }
+	public long getCollected() { return collected.get(); }
+
+	public synchronized int getStrongCount() { return strong.size(); }
+	public synchronized long getWeight() { return weight; }
+
+
+	public synchronized void resetStats()
+	{
+		hits.set(0);
+		softHits.set(0);
+		misses.set(0);
+		evictions.set(0);
+		collected.set(0);
+	}
+
+
+	@Override
+	public synchronized String toString()
+	{
+		expungeCollected();
+		return name + ": " + hits.get() + " hits, " + softHits.get() + " soft hits, " + misses.get() + " misses, "
+				+ evictions.get() + " evictions, " + collected.get() + " collected; "
+				+ strong.size() + " held (" + (weight / 1024) + "/" + (maxWeight / 1024) + " KB), " + soft.size() + " soft";
+	}
+}
@@ -0,0 +1,19 @@
+package net.fybertech.dynamicmappings;
+
+
+/**
+ * Somewhere raw class files can be loaded from.
+ */
+public interface ClassSource
+{
+	/**
+	 * @param className - Internal name of the class, using / separators.
+	 * @return The class file's bytes, or null if this source doesn't have it.
+	 */
+	public byte[] getClassBytes(String className);
+
+	/**
+	 * @return Internal names of every class this source can provide.
+	 */
+	public Iterable<String> getClassNames();
+}
@@ -0,0 +1,266 @@
+package net.fybertech.dynamicmappings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.objectweb.asm.ClassReader;
+
+
+/**
+ * The interesting parts of a class's constant pool, decoded in a single pass.
+ *
+ * Indexes are cached by class name, so the constant pool helpers in
+ * DynamicMappings only have to load and parse each class once no matter
+ * how many times the mappers search it.
+ */
+public class ConstantPoolIndex
+{
+	private static final int CONSTANT_Class = 7;
+	private static final int CONSTANT_Fieldref = 9;
+	private static final int CONSTANT_Methodref = 10;
+	private static final int CONSTANT_InterfaceMethodref = 11;
+	private static final int CONSTANT_String = 8;
+	private static final int CONSTANT_Integer = 3;
+	private static final int CONSTANT_Float = 4;
+	private static final int CONSTANT_Long = 5;
+	private static final int CONSTANT_Double = 6;
+
+	/** Stands in for classes that couldn't be loaded, so we don't keep retrying */
+	private static final ConstantPoolIndex MISSING = new ConstantPoolIndex();
+
+	private static final ConcurrentHashMap<String, ConstantPoolIndex> cache = new ConcurrentHashMap<String, ConstantPoolIndex>();
+
+
+	public final String className;
+	public final String superName;
+	public final String[] interfaces;
+
+	/** String constants, in constant pool order */
+	public final String[] strings;
+	/** String constants with whitespace trimmed, same order as strings */
+	public final String[] trimmedStrings;
+	/** Class references, in constant pool order */
+	public final String[] classes;
+	/** Field references in "owner name desc" format */
+	public final String[] fieldRefs;
+	/** Method and interface method references in "owner name desc" format */
+	public final String[] methodRefs;
+
+	public final int[] integers;
+	public final float[] floats;
+	public final long[] longs;
+	public final double[] doubles;
+
+
+	private ConstantPoolIndex()
+	{
+		className = null;
+		superName = null;
+		strings = interfaces = trimmedStrings = classes = fieldRefs = methodRefs = new String[0];
+		integers = new int[0];
+		floats = new float[0];
+		longs = new long[0];
+		doubles = new double[0];
+	}
+
+
+	public ConstantPoolIndex(ClassReader reader)
+	{
+		className = reader.getClassName();
+		superName = reader.getSuperName();
+		interfaces = reader.getInterfaces();
+
+		List<String> stringList = new ArrayList<String>();
+		List<String> classList = new ArrayList<String>();
+		List<String> fieldList = new ArrayList<String>();
+		List<String> methodList = new ArrayList<String>();
+		List<Integer> intList = new ArrayList<Integer>();
+		List<Float> floatList = new ArrayList<Float>();
+		List<Long> longList = new ArrayList<Long>();
+		List<Double> doubleList = new ArrayList<Double>();
+
+		int itemCount = reader.getItemCount();
+		char[] buffer = new char[reader.getMaxStringLength()];
+
+		for (int n = 1; n < itemCount; n++)	{
+			int pos = reader.getItem(n);
+			if (pos == 0) continue;
+
+			switch (reader.b[pos - 1]) {
+				case CONSTANT_String:
+					stringList.add(reader.readUTF8(pos, buffer));
+					break;
+				case CONSTANT_Class:
+					classList.add(reader.readUTF8(pos, buffer));
+					break;
+				case CONSTANT_Fieldref:
+					fieldList.add(readMemberRef(reader, pos, buffer));
+					break;
+				case CONSTANT_Methodref:
+				case CONSTANT_InterfaceMethodref:
+					methodList.add(readMemberRef(reader, pos, buffer));
+					break;
+				case CONSTANT_Integer:
+					intList.add(reader.readInt(pos));
+					break;
+				case CONSTANT_Float:
+					floatList.add(Float.intBitsToFloat(reader.readInt(pos)));
+					break;
+				case CONSTANT_Long:
+					longList.add(reader.readLong(pos));
+					break;
+				case CONSTANT_Double:
+					doubleList.add(Double.longBitsToDouble(reader.readLong(pos)));
+					break;
+			}
+		}
+
+		strings = stringList.toArray(new String[stringList.size()]);
+		trimmedStrings = new String[strings.length];
+		for (int n = 0; n < strings.length; n++) trimmedStrings[n] = strings[n].trim();
+		classes = classList.toArray(new String[classList.size()]);
+		fieldRefs = fieldList.toArray(new String[fieldList.size()]);
+		methodRefs = methodList.toArray(new String[methodList.size()]);
+
+		integers = new int[intList.size()];
+		for (int n = 0; n < integers.length; n++) integers[n] = intList.get(n);
+		floats = new float[floatList.size()];
+		for (int n = 0; n < floats.length; n++) floats[n] = floatList.get(n);
+		longs = new long[longList.size()];
+		for (int n = 0; n < longs.length; n++) longs[n] = longList.get(n);
+		doubles = new double[doubleList.size()];
+		for (int n = 0; n < doubles.length; n++) doubles[n] = doubleList.get(n);
+	}
+
+
+	private static String readMemberRef(ClassReader reader, int pos, char[] buffer)
+	{
+		String owner = reader.readClass(pos, buffer);
+		int nameType = reader.getItem(reader.readUnsignedShort(pos + 2));
+		String name = reader.readUTF8(nameType, buffer);
+		String desc = reader.readUTF8(nameType + 2, buffer);
+		return owner + " " + name + " " + desc;
+	}
+
+
+	/**
+	 * Gets the constant pool index for a class, parsing it the first time
+	 * it's requested.
+	 *
+	 * @param className - The name of the class, using either . or / separators.
+	 * @return The index, or null if the class couldn't be loaded.
+	 */
+	public static ConstantPoolIndex get(String className)
+	{
+		if (className == null) return null;
+		className = className.replace(".", "/");
+
+		ConstantPoolIndex index = cache.get(className);
+		if (index == null) {
+			index = load(className);
+			if (index == null) index = MISSING;
+			ConstantPoolIndex existing = cache.putIfAbsent(className, index);
+			if (existing != null) index = existing;
+		}
+
+		return index == MISSING ? null : index;
+	}
+
+
+	private static ConstantPoolIndex load(String className)
+	{
+		ClassReader reader = DynamicMappings.getClassReader(className);
+		if (reader == null) return null;
+		return new ConstantPoolIndex(reader);
+	}
+
+
+	public static void clearCache()
+	{
+		cache.clear();
+	}
+
+
+	/**
+	 * Counts the pool strings that match one of the specified strings after
+	 * both are trimmed, and checks that it equals the number of strings asked
+	 * for.  Same behavior as the original constant pool search.
+	 */
+	public boolean hasStrings(String... matchStrings)
+	{
+		Set<String> match = new HashSet<String>();
+		for (String s : matchStrings) match.add(s.trim());
+
+		int matches = 0;
+		for (String s : trimmedStrings) {
+			if (match.contains(s)) matches++;
+		}
+		return matches == matchStrings.length;
+	}
+
+
+	public boolean hasClasses(String... matchClasses)
+	{
+		Set<String> match = new HashSet<String>();
+		for (String s : matchClasses) match.add(s.replace(".", "/"));
+		return countMatches(classes, match) == matchClasses.length;
+	}
+
+
+	public boolean hasFieldRefs(String... matchFields)
+	{
+		Set<String> match = new HashSet<String>();
+		for (String s : matchFields) match.add(s.replace(".", "/"));
+		return countMatches(fieldRefs, match) == matchFields.length;
+	}
+
+
+	public boolean hasMethodRefs(String... matchMethods)
+	{
+		Set<String> match = new HashSet<String>();
+		for (String s : matchMethods) match.add(s.replace(".", "/"));
+		return countMatches(methodRefs, match) == matchMethods.length;
+	}
+
+
+	private static int countMatches(String[] pool, Set<String> match)
+	{
+		int matches = 0;
+		for (String s : pool) {
+			if (match.contains(s)) matches++;
+		}
+		return matches;
+	}
+
+
+	public List<String> getStrings()
+	{
+		return new ArrayList<String>(Arrays.asList(strings));
+	}
+
+
+	/**
+	 * @param processArrays - If true, array types are reduced to their object
+	 * element type, and primitive arrays are skipped.
+	 */
+	public Set<String> getClasses(boolean processArrays)
+	{
+		Set<String> output = new HashSet<String>();
+
+		for (String string : classes) {
+			if (string.startsWith("[") && processArrays) {
+				string = ModMappings.getArrayType(string);
+				if (string == null) continue;
+			}
+			if (string.length() < 1) continue;
+
+			output.add(string);
+		}
+
+		return output;
+	}
+}
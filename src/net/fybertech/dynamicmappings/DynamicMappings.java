@@ -1,6 +1,8 @@
 package net.fybertech.dynamicmappings;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -8,19 +10,21 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.net.JarURLConnection;
 import java.net.URL;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
 import org.apache.logging.log4j.LogManager;
@@ -49,28 +53,69 @@ public class DynamicMappings
 		"net.fybertech.dynamicmappings.mappers.ClientMappings"
 	}));
 
+	/** Run by the mapping maps below whenever they're changed, however it's done */
+	private static final Runnable invalidateSnapshot = new Runnable() {
+		@Override
+		public void run()
+		{
+			invalidateSnapshot();
+		}
+	};
+
 	/** Deobfuscated class -> obfuscated class */
-	public static final Map<String, String> classMappings = new HashMap<String, String>();
+	public static final Map<String, String> classMappings = new WatchedMap<String, String>(invalidateSnapshot);
 	/** Obfuscated class -> deobfuscated class */
-	public static final Map<String, String> reverseClassMappings = new HashMap<String, String>();
+	public static final Map<String, String> reverseClassMappings = new WatchedMap<String, String>(invalidateSnapshot);
 
 	/** Deobfuscated field -> obfuscated field */
-	public static final Map<String, String> fieldMappings = new HashMap<String, String>();
+	public static final Map<String, String> fieldMappings = new MemberMappings(invalidateSnapshot);
 	/** Obfuscated field -> deobfuscated field */
-	public static final Map<String, String> reverseFieldMappings = new HashMap<String, String>();
+	public static final Map<String, String> reverseFieldMappings = new MemberMappings(invalidateSnapshot);
 
 	/** Deobfuscated method -> obfuscated method */
-	public static final Map<String, String> methodMappings = new HashMap<String, String>();
+	public static final Map<String, String> methodMappings = new MemberMappings(invalidateSnapshot);
 	/** Obfuscated method -> deobfuscated method */
-	public static final Map<String, String> reverseMethodMappings = new HashMap<String, String>();
+	public static final Map<String, String> reverseMethodMappings = new MemberMappings(invalidateSnapshot);
+
+	/** Mappings only provided by client side mappers, used by ModMappings and MappingsExporter */
+	public static final Set<String> clientMappingsSet = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	/** Mappings only provided by server side mappers, used by ModMappings and MappingsExporter */
+	public static final Set<String> serverMappingsSet = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * Used by getClassNode to avoid reloading the classes over and over.  The
+	 * budget is in megabytes of class files, roughly a tenth of the heap the
+	 * parsed nodes take up.
+	 */
+	public static final ClassNodeCache classNodeCache = new ClassNodeCache("ClassNode cache", 0,
+			Integer.getInteger("dynamicmappings.classcache.mb", 16) * 1024L * 1024L,
+			!Boolean.getBoolean("dynamicmappings.classcache.nosoft"),
+			Boolean.getBoolean("dynamicmappings.classcache.keepbytes"));
+
+	/** Used by getClassNodeSkeleton, cached separately from the full nodes */
+	public static final ClassNodeCache skeletonNodeCache = new ClassNodeCache("Skeleton ClassNode cache",
+			ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES,
+			Integer.getInteger("dynamicmappings.skeletoncache.mb", 16) * 1024L * 1024L,
+			!Boolean.getBoolean("dynamicmappings.classcache.nosoft"),
+			Boolean.getBoolean("dynamicmappings.classcache.keepbytes"));
+
+	/**
+	 * ClassNodes parsed for the mapper running on this thread, used instead
+	 * of classNodeCache when mappers run concurrently.  ASM fills in parts of
+	 * a node lazily even when it's only being read (InsnList's index cache,
+	 * LabelNode's labels), so mappers in flight can't share nodes.
+	 */
+	private static final ThreadLocal<Map<String, ClassNode>> privateNodes = new ThreadLocal<Map<String, ClassNode>>();
+
+	/** Built on first use by findClassesWithStrings */
+	private static StringIndex stringIndex = null;
 
-	/** Only used when simulatedMappings is enabled, to help with ModMappings */
-	public static final Set<String> clientMappingsSet = new HashSet<>();
-	/** Only used when simulatedMappings is enabled, to help with ModMappings */
-	public static final Set<String> serverMappingsSet = new HashSet<>();
+	/** Built on first use by doesInheritFrom, isSubclassOf and getChildClasses */
+	private static ClassHierarchy classHierarchy = null;
 
-	/** Used by getClassNode to avoid reloading the classes over and over */
-	private static Map<String, ClassNode> cachedClassNodes = new HashMap<String, ClassNode>();
+	/** Direct access to the Minecraft jar's classes, see getClassSource */
+	private static volatile ClassSource classSource = null;
+	private static volatile boolean classSourceChecked = false;
 
 
 	/**
@@ -83,14 +128,61 @@ public class DynamicMappings
 	 */
 	public static boolean simulatedMappings = false;
 
+	/**
+	 * If set to true, mapper methods with no ordering between them are run
+	 * concurrently on a work-stealing pool.  Mappers must only communicate
+	 * through the mappings they declare for this to give the same results.
+	 * Each mapper gets its own ClassNodes from getClassNode while running.
+	 */
+	public static boolean parallelMappings = Boolean.getBoolean("dynamicmappings.parallel");
+
+	/** Number of threads used when parallelMappings is enabled */
+	public static int mappingThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * If set to true, generating mappings with a cache file also keeps a
+	 * record of what each mapper read, so that mappers unaffected by a new
+	 * Minecraft jar can reuse their previous results.  See IncrementalMappings.
+	 */
+	public static boolean incrementalMappings = !Boolean.getBoolean("dynamicmappings.noincremental");
+
+	/**
+	 * Immutable copy of the mappings, published once they've been generated
+	 * or loaded.  Null while mappings are still being added, and cleared by
+	 * any change to the maps afterwards.
+	 */
+	private static volatile MappingSnapshot snapshot = null;
+
 
 
 	/**
 	 * Called to initialize all mappings.
+	 *
+	 * Mapper methods from every class in MAPPINGS_CLASSES are scheduled
+	 * together, so any mapper may depend on mappings provided by another
+	 * class regardless of the order they're listed in.
+	 *
+	 * @return True if every mapper ran without throwing and had its
+	 * dependencies met.
 	 */
-	public static void generateClassMappings()
+	public static boolean generateClassMappings()
 	{
-		generateClassLinkages();
+		return generateClassMappings((IncrementalMappings)null);
+	}
+
+
+	/**
+	 * Generates all mappings, skipping mappers whose results from a previous
+	 * jar can be reused.
+	 *
+	 * @param incremental - Records from the previous jar, or null to run every mapper.
+	 * @return True if every mapper ran without throwing and had its
+	 * dependencies met.
+	 */
+	public static boolean generateClassMappings(IncrementalMappings incremental)
+	{
+		MappingScheduler scheduler = new MappingScheduler("mappings classes");
+		scheduler.setIncremental(incremental);
 
 		for (String clazz : MAPPINGS_CLASSES)
 		{
@@ -103,39 +195,99 @@ public class DynamicMappings
 			}
 
 			if (c != null) {
-				DynamicMappings.registerMappingsClass(c);
+				addMappingsClass(scheduler, c);
 			}
 
 		}
+
+		ForkJoinPool pool = null;
+		if (parallelMappings) pool = new ForkJoinPool(Math.max(1, mappingThreads));
+
+		boolean succeeded = scheduler.run(pool);
+
+		if (pool != null) pool.shutdown();
+
+		publishSnapshot();
+		return succeeded;
+	}
+
+
+	/**
+	 * Takes an immutable snapshot of the current mappings and publishes it
+	 * for the lookup methods to use.  Called automatically once mappings
+	 * have been generated or loaded.
+	 */
+	public static synchronized MappingSnapshot publishSnapshot()
+	{
+		MappingSnapshot published = MappingSnapshot.capture();
+		snapshot = published;
+		return published;
+	}
+
+
+	/**
+	 * Clears the published snapshot, since it no longer matches the maps.
+	 * Synchronized with publishSnapshot, so a change made while a snapshot
+	 * is being captured still clears it once it's published.
+	 */
+	private static synchronized void invalidateSnapshot()
+	{
+		snapshot = null;
+	}
+
+
+	/**
+	 * @return The published mappings, or null if they're still being built
+	 * or have been changed since.  Safe to read from any thread without
+	 * locking.
+	 */
+	public static MappingSnapshot getSnapshot()
+	{
+		return snapshot;
 	}
 
 
 
 	/**
-	 * Stores relevant information about a mapper method in one structure.
+	 * Loads mappings from the cache file if it was written for the same
+	 * Minecraft jar and mappings classes, otherwise generates them and
+	 * updates the cache.  When generating, mappers unaffected by changes
+	 * since the last jar reuse their results (see incrementalMappings).
+	 *
+	 * @param cacheFile - Location of the mappings cache.
+	 * @return True if the mappings were loaded from the cache.
 	 */
-	private static class MappingMethod
+	public static boolean generateClassMappings(File cacheFile)
 	{
-		final Method method;
-		final String[] provides;
-		final String[] depends;
+		if (simulatedMappings || cacheFile == null) {
+			generateClassMappings();
+			return false;
+		}
 
-		final String[] providesMethods;
-		final String[] dependsMethods;
+		byte[] key = MappingsCache.computeKey(getMinecraftJar(), MAPPINGS_CLASSES);
+		if (MappingsCache.load(cacheFile, key)) {
+			System.out.println("[DynamicMappings] Loaded mappings from " + cacheFile.getPath());
+			publishSnapshot();
+			return true;
+		}
 
-		final String[] providesFields;
-		final String[] dependsFields;
+		if (!incrementalMappings) {
+			generateClassMappings();
+			MappingsCache.save(cacheFile, key);
+			return false;
+		}
 
-		public MappingMethod(Method m, Mapping mapping)
-		{
-			method = m;
-			provides = mapping.provides();
-			depends = mapping.depends();
-			providesMethods = mapping.providesMethods();
-			dependsMethods = mapping.dependsMethods();
-			providesFields = mapping.providesFields();
-			dependsFields = mapping.dependsFields();
+		File incrementalFile = new File(cacheFile.getPath() + ".inc");
+		IncrementalMappings incremental = IncrementalMappings.load(incrementalFile, MAPPINGS_CLASSES);
+		generateClassMappings(incremental);
+		if (incremental.getReusedCount() > 0) {
+			System.out.println("[DynamicMappings] Reused " + incremental.getReusedCount() + " of "
+					+ (incremental.getReusedCount() + incremental.getRunCount()) + " mappers from the previous jar");
 		}
+
+		incremental.save(incrementalFile);
+		MappingsCache.save(cacheFile, key);
+		return false;
 	}
 
 
@@ -152,8 +304,36 @@ public class DynamicMappings
 	 */
 	public static boolean registerMappingsClass(Class<? extends Object> mappingsClass)
 	{
-		List<MappingMethod> mappingMethods = new ArrayList<MappingMethod>();
+		return registerMappingsClass(mappingsClass, null);
+	}
+
+
+	/**
+	 * Parses a class for dynamic mappings, optionally running independent
+	 * mapper methods concurrently.
+	 *
+	 * @param mappingsClass - The class to process for mapper methods.
+	 * @param pool - Pool to run mapper methods on, or null to run them serially.
+	 * @return True if all mappings were successfully discovered.
+	 */
+	public static boolean registerMappingsClass(Class<? extends Object> mappingsClass, ForkJoinPool pool)
+	{
+		MappingScheduler scheduler = new MappingScheduler(mappingsClass.getName());
+		if (!addMappingsClass(scheduler, mappingsClass)) return false;
+		return scheduler.run(pool);
+	}
+
 
+	/**
+	 * Adds a class's mapper methods to the scheduler, unless its @MappingsClass
+	 * annotation says it's for the other side.
+	 *
+	 * @param scheduler - The scheduler to add mapper methods to.
+	 * @param mappingsClass - The class to process for mapper methods.
+	 * @return False if the class was ignored.
+	 */
+	private static boolean addMappingsClass(MappingScheduler scheduler, Class<? extends Object> mappingsClass)
+	{
 		boolean clientSide = false;
 		boolean serverSide = false;
 
@@ -177,13 +357,6 @@ public class DynamicMappings
 		System.out.println("[DynamicMappings] Processing class " + mappingsClass.getName());
 
 
-		for (Method method : mappingsClass.getMethods())
-		{
-			if (!method.isAnnotationPresent(Mapping.class)) continue;
-			Mapping mapping = method.getAnnotation(Mapping.class);
-			mappingMethods.add(new MappingMethod(method, mapping));
-		}
-
 		Object mappingsObject = null;
 		try {
 			Constructor<? extends Object> mappingsConstructor = mappingsClass.getConstructor(new Class[0]);
@@ -192,137 +365,87 @@ public class DynamicMappings
 			e.printStackTrace();
 		}
 
-
-		while (true)
+		for (Method method : mappingsClass.getMethods())
 		{
-			int startSize = mappingMethods.size();
-			for (Iterator<MappingMethod> it = mappingMethods.iterator(); it.hasNext();)
-			{
-				MappingMethod mm = it.next();
-				boolean isStatic = Modifier.isStatic(mm.method.getModifiers());
-
-				boolean hasDepends = true;
-				for (String depend : mm.depends) {
-					if (!classMappings.keySet().contains(depend)) hasDepends = false;
-				}
-				for (String depend : mm.dependsFields) {
-					if (!fieldMappings.keySet().contains(depend)) hasDepends = false;
-				}
-				for (String depend : mm.dependsMethods) {
-					if (!methodMappings.keySet().contains(depend)) hasDepends = false;
-				}
-				if (!hasDepends) continue;
-
-				if (!simulatedMappings) {
-					try {
-						if (isStatic) mm.method.invoke(null);
-						else mm.method.invoke(mappingsObject, (Object[])null);
-					} catch (Exception e) {
-						e.printStackTrace();
-					}
-				}
-				else {
-					for (String s : mm.provides) {
-						classMappings.put(s, "---");
-						if (clientSide) clientMappingsSet.add(s);
-						if (serverSide) serverMappingsSet.add(s);
-					}
-					for (String s : mm.providesFields) {
-						fieldMappings.put(s, "--- --- ---");
-						if (clientSide) clientMappingsSet.add(s);
-						if (serverSide) serverMappingsSet.add(s);
-					}
-					for (String s : mm.providesMethods) {
-						methodMappings.put(s, "--- --- ---");
-						if (clientSide) clientMappingsSet.add(s);
-						if (serverSide) serverMappingsSet.add(s);
-					}
-				}
+			if (!method.isAnnotationPresent(Mapping.class)) continue;
+			scheduler.addMapper(mappingsClass, method, mappingsObject, clientSide, serverSide);
+		}
 
-				for (String provider : mm.provides)
-				{
-					if (!classMappings.keySet().contains(provider))
-						System.out.println(mm.method.getName() + " didn't provide mapping for class " + provider);
-				}
+		return true;
+	}
 
-				for (String provider : mm.providesFields)
-				{
-					if (!fieldMappings.keySet().contains(provider))
-						System.out.println(mm.method.getName() + " didn't provide mapping for field " + provider);
-				}
 
-				for (String provider : mm.providesMethods)
-				{
-					if (!methodMappings.keySet().contains(provider))
-						System.out.println(mm.method.getName() + " didn't provide mapping for method " + provider);
-				}
+	private static final ClassLinkages linkages = new ClassLinkages();
+	/** Set once generateClassLinkages has crawled the whole jar */
+	private static volatile boolean linkagesGenerated = false;
 
-				it.remove();
-			}
+	/**
+	 * Unmodifiable, filled in by generateClassLinkages the first time one of
+	 * them is used.  See ClassLinkages.
+	 */
+	public static Map<String, Set<String>> classDeps = new LazyLinkageMap(linkages.classDeps);
+	public static Map<String, Set<String>> classesExtendFrom = new LazyLinkageMap(linkages.classesExtendFrom);
+	public static Map<String, Set<String>> classesImplementFrom = new LazyLinkageMap(linkages.classesImplementFrom);
 
-			if (mappingMethods.size() == 0) return true;
 
-			if (startSize == mappingMethods.size())
-			{
-				System.out.println("Unmet mapping dependencies in " + mappingsClass.getName() + "!");
-				for (MappingMethod mm : mappingMethods) {
-					System.out.println("  Mapper Method: " + mm.method.getName());
-					for (String depend : mm.depends) {
-						if (!classMappings.keySet().contains(depend)) System.out.println("    Class: " + depend);
-					}
-					for (String depend : mm.dependsFields) {
-						if (!fieldMappings.keySet().contains(depend)) System.out.println("    Field: " + depend);
-					}
-					for (String depend : mm.dependsMethods) {
-						if (!methodMappings.keySet().contains(depend)) System.out.println("    Method: " + depend);
-					}
-				}
-				return false;
-			}
+	/**
+	 * One of the linkage maps, generating the linkages before it's first
+	 * read.  Reading one counts as searching the whole jar.
+	 */
+	private static class LazyLinkageMap extends AbstractMap<String, Set<String>>
+	{
+		private final Map<String, Set<String>> map;
+
+		LazyLinkageMap(Map<String, Set<String>> map)
+		{
+			this.map = map;
 		}
-	}
 
+		private Map<String, Set<String>> generated()
+		{
+			IncrementalMappings.readWholeJar();
+			if (!linkagesGenerated) generateClassLinkages();
+			return map;
+		}
 
-	public static Map<String, Set<String>> classDeps = new HashMap<>();
-	public static Map<String, Set<String>> classesExtendFrom = new HashMap<>();
-	public static Map<String, Set<String>> classesImplementFrom = new HashMap<>();
+		@Override
+		public Set<String> get(Object key)
+		{
+			return generated().get(key);
+		}
+
+		@Override
+		public boolean containsKey(Object key)
+		{
+			return generated().containsKey(key);
+		}
+
+		@Override
+		public int size()
+		{
+			return generated().size();
+		}
+
+		@Override
+		public Set<Map.Entry<String, Set<String>>> entrySet()
+		{
+			return generated().entrySet();
+		}
+	}
 
 	static String[] classSearchExceptions = new String[] { "java/", "javax/", "sun/", "com/google/",
 			"org/apache/", "com/sun/", "io/netty/", "jdk/internal/", "org/xml/",
 			"org/w3c/", "jdk/net/", "com/ibm/", "org/lwjgl/", "com/jcraft/",
 			"joptsimple/", "net/java/", "paulscode/", "com/mojang/"};
 
-	public static void getConstantPoolClassesRecursive(String className)
+	/**
+	 * Adds the class, and every class it references that isn't already
+	 * known, to the linkages.
+	 */
+	public static synchronized void getConstantPoolClassesRecursive(String className)
 	{
-		if (startsWithAny(className, classSearchExceptions)) return;
-
-		ClassReader reader = null;
-		try {
-			reader = new ClassReader(className);
-		} catch (IOException e) {}
-		if (reader != null) {
-			String superName = reader.getSuperName();
-			Set<String> extendSet = classesExtendFrom.get(superName);
-			if (extendSet == null) { extendSet = new HashSet<>(); classesExtendFrom.put(superName, extendSet); }
-			extendSet.add(className);
-
-			for (String iface : reader.getInterfaces()) {
-				Set<String> implementSet = classesImplementFrom.get(iface);
-				if (implementSet == null) { implementSet = new HashSet<>(); classesImplementFrom.put(iface, implementSet); }
-				implementSet.add(className);
-			}
-		}
-
-		Set<String> classes = classDeps.get(className);
-		if (classes == null) {
-			classes = getConstantPoolClasses(className, true);
-			if (classes == null) return;
-			classDeps.put(className, classes);
-		}
-		//System.out.println(className + " " + (classes != null));
-		for (String s : classes) {
-			if (!classDeps.containsKey(s)) getConstantPoolClassesRecursive(s);
-		}
+		if (linkages.classDeps.containsKey(className)) return;
+		linkages.add(Collections.singletonList(className), mappingThreads);
 	}
 
 
@@ -335,26 +458,45 @@ public class DynamicMappings
 	}
 
 
+	/**
+	 * Gets every class in the jar that extends or implements the specified
+	 * class, directly or not.  See ClassHierarchy.
+	 */
 	public static Set<String> getChildClasses(String className)
 	{
-		Set<String> outSet = new HashSet<>();
-		Set<String> tempSet = new HashSet<>();
-		if (classesExtendFrom.containsKey(className)) tempSet.addAll(classesExtendFrom.get(className));
-		if (classesImplementFrom.containsKey(className)) tempSet.addAll(classesImplementFrom.get(className));
-		outSet.addAll(tempSet);
+		IncrementalMappings.readWholeJar();
+		return getClassHierarchy().getChildClasses(className);
+	}
 
-		for (String s : tempSet) {
-			outSet.addAll(getChildClasses(s));
-		}
-		return outSet;
+
+	/**
+	 * Gets the classes in the jar that directly extend or implement the
+	 * specified class.
+	 */
+	public static Set<String> getDirectChildClasses(String className)
+	{
+		IncrementalMappings.readWholeJar();
+		return getClassHierarchy().getDirectChildClasses(className);
 	}
 
 
-	public static void generateClassLinkages()
+	/**
+	 * Builds classDeps, classesExtendFrom and classesImplementFrom from every
+	 * class in the jar, along with anything they reference.  Done the first
+	 * time one of the maps is read, calling it again does nothing.
+	 */
+	public static synchronized void generateClassLinkages()
 	{
+		if (linkagesGenerated) return;
 		System.out.print("[DynamicMappings] Generating linkages...");
-		getConstantPoolClassesRecursive("net/minecraft/server/MinecraftServer");
-		getConstantPoolClassesRecursive("net/minecraft/client/main/Main");
+
+		List<String> roots = new ArrayList<String>();
+		roots.add("net/minecraft/server/MinecraftServer");
+		roots.add("net/minecraft/client/main/Main");
+		for (String className : getJarClassNames()) roots.add(className);
+
+		linkages.add(roots, mappingThreads);
+		linkagesGenerated = true;
 		System.out.println("done");
 	}
 
@@ -374,8 +516,10 @@ public class DynamicMappings
 		ParmParser pp = new ParmParser();
 		Parm clearMappersParm = pp.addParm("-clearmappers", 0);
 		Parm addMapperParm = pp.addParm("-addmappers", 1);
+		Parm parallelParm = pp.addParm("-parallel", 0);
 		pp.processArgs(args);
 
+		if (parallelParm.found) parallelMappings = true;
 		if (clearMappersParm.found) DynamicMappings.MAPPINGS_CLASSES.clear();
 		if (addMapperParm.found) {
 			String split[] = addMapperParm.getFirstResult().split(":;,");
@@ -399,6 +543,9 @@ public class DynamicMappings
 
 		log(true, writer, "[DynamicMappings] Minecraft version: " + MeddleUtil.findMinecraftVersion());
 		log(true, writer, "[DynamicMappings] Minecraft jar type: " + (MeddleUtil.isClientJar() ? "client" : "server"));
+		// Console only, these vary from run to run and would churn the mappings file
+		log(true, null, "[DynamicMappings] " + classNodeCache);
+		log(true, null, "[DynamicMappings] " + skeletonNodeCache);
 
 		if (!showMappings && !saveMappings) return;
 
@@ -430,16 +577,130 @@ public class DynamicMappings
 		}
 
 		writer.close();
+
+		// Same mappings again, in a form tools can load without regenerating or parsing them
+		try {
+			BinaryMappings.writeCurrent(new File("currentmappings.bin"));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+
+
+	/**
+	 * Gets the source used to load classes from the Minecraft jar, mapping the
+	 * jar the first time it's requested.
+	 *
+	 * @return The class source, or null if the jar couldn't be mapped.
+	 */
+	public static ClassSource getClassSource()
+	{
+		if (classSourceChecked) return classSource;
+
+		synchronized (DynamicMappings.class) {
+			if (!classSourceChecked) {
+				JarFile jar = getMinecraftJar();
+				if (jar != null) classSource = MappedJarClassSource.build(new File(jar.getName()));
+				classSourceChecked = true;
+			}
+		}
+		return classSource;
+	}
+
+
+	/**
+	 * Overrides where classes are loaded from, such as when processing a
+	 * jar that isn't on the classpath.  The classloader is still used for
+	 * anything the source doesn't have.
+	 *
+	 * @param source - The class source to use, or null to only use the classloader.
+	 */
+	public static synchronized void setClassSource(ClassSource source)
+	{
+		classSource = source;
+		classSourceChecked = true;
+	}
+
+
+	/**
+	 * Loads the raw bytes of a class, from the Minecraft jar if possible or
+	 * else through the classloader.
+	 *
+	 * @param className - The name of the class to load.
+	 * @return The class file's bytes, or null if it couldn't be found.
+	 */
+	public static byte[] getClassBytes(String className)
+	{
+		if (className == null) return null;
+		className = className.replace(".", "/");
+
+		ClassSource source = getClassSource();
+		if (source != null) {
+			byte[] bytes = source.getClassBytes(className);
+			if (bytes != null) return bytes;
+		}
+
+		InputStream stream = DynamicMappings.class.getClassLoader().getResourceAsStream(className + ".class");
+		if (stream == null) return null;
+
+		try {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = stream.read(buffer)) > 0) output.write(buffer, 0, read);
+			return output.toByteArray();
+		} catch (IOException e) {
+			return null;
+		} finally {
+			try { stream.close(); } catch (IOException e) {}
+		}
 	}
 
 
+	/**
+	 * @param className - The name of the class to load.
+	 * @return A ClassReader for the class, or null if it couldn't be found.
+	 */
+	public static ClassReader getClassReader(String className)
+	{
+		byte[] bytes = getClassBytes(className);
+		if (bytes == null) return null;
+
+		try {
+			return new ClassReader(bytes);
+		} catch (RuntimeException e) { return null; }
+	}
+
+
+	/**
+	 * @return The names of every class in the Minecraft jar.
+	 */
+	public static Iterable<String> getJarClassNames()
+	{
+		ClassSource source = getClassSource();
+		if (source != null) return source.getClassNames();
+
+		List<String> names = new ArrayList<String>();
+		JarFile jar = getMinecraftJar();
+		if (jar == null) return names;
+
+		for (Enumeration<JarEntry> enumerator = jar.entries(); enumerator.hasMoreElements();) {
+			String filename = enumerator.nextElement().getName();
+			if (filename.endsWith(".class")) names.add(filename.substring(0, filename.length() - 6));
+		}
+		return names;
+	}
+
 
 	/**
 	 * Load a ClassNode by its name.  This is for loading the original obfuscated
 	 * classes.
 	 *
 	 * Note: *Do not* edit classes you get from this.  They're cached and used by
-	 * anyone doing analysis of vanilla class files.
+	 * anyone doing analysis of vanilla class files.  Also don't rely on getting
+	 * the same instance back each time, since the cache may evict it.  Mappers
+	 * running concurrently each get their own copy (see parallelMappings).
 	 *
 	 * @param className - The normal (probably obfuscated) name of the class to load.
 	 * @return The ClassNode requested, or null if it doesn't exist.
@@ -449,23 +710,67 @@ public class DynamicMappings
 		if (className == null) return null;
 
 		className = className.replace(".", "/");
-		if (cachedClassNodes.containsKey(className)) return cachedClassNodes.get(className);
+		IncrementalMappings.readClass(className);
 
-		//InputStream stream = Launch.classLoader.getResourceAsStream(className + ".class");
-		InputStream stream = DynamicMappings.class.getClassLoader().getResourceAsStream(className + ".class");
-		if (stream == null) return null;
+		Map<String, ClassNode> nodes = privateNodes.get();
+		if (nodes == null) return classNodeCache.get(className);
+		if (nodes.containsKey(className)) return nodes.get(className);
 
-		ClassReader reader = null;
-		try {
-			reader = new ClassReader(stream);
-		} catch (IOException e) { return null; }
+		ClassNode node = null;
+		byte[] bytes = getClassBytes(className);
+		if (bytes != null) {
+			try {
+				node = new ClassNode();
+				new ClassReader(bytes).accept(node, 0);
+			} catch (RuntimeException e) { node = null; }
+		}
+		nodes.put(className, node);
+		return node;
+	}
+
+
+	/**
+	 * Gives the current thread its own ClassNodes from getClassNode, rather
+	 * than shared cached ones, until endPrivateNodes is called.  Used by
+	 * MappingScheduler around each mapper when running them concurrently.
+	 */
+	static void beginPrivateNodes()
+	{
+		privateNodes.set(new HashMap<String, ClassNode>());
+	}
+
+
+	static void endPrivateNodes()
+	{
+		privateNodes.remove();
+	}
+
+
+	/**
+	 * Load a ClassNode without method bodies or debug info, which is much
+	 * quicker to parse and smaller to keep around.  Good for anything that
+	 * only needs the class header and member signatures, such as the
+	 * hierarchy checks, getMatchingMethods and getMatchingFields.
+	 *
+	 * If the full class is already cached, that's returned instead.  Use
+	 * getClassNode(skeleton.name) to get the full class with method bodies.
+	 *
+	 * @param className - The normal (probably obfuscated) name of the class to load.
+	 * @return The ClassNode requested, or null if it doesn't exist.
+	 */
+	public static ClassNode getClassNodeSkeleton(String className)
+	{
+		if (className == null) return null;
 
-		ClassNode cn = new ClassNode();
-		reader.accept(cn, 0);
+		className = className.replace(".", "/");
+		IncrementalMappings.readClass(className);
 
-		cachedClassNodes.put(className, cn);
+		// Skeletons have no code, so only full nodes have to stay private
+		Map<String, ClassNode> nodes = privateNodes.get();
+		ClassNode full = nodes != null ? nodes.get(className) : classNodeCache.peek(className);
+		if (full != null) return full;
 
-		return cn;
+		return skeletonNodeCache.get(className);
 	}
 
 
@@ -632,35 +937,10 @@ public class DynamicMappings
 	 */
 	public static boolean searchConstantPoolForStrings(String className, String... matchStrings)
 	{
-		if (className == null) return false;
-		className = className.replace(".", "/");
-		InputStream stream = DynamicMappings.class.getClassLoader().getResourceAsStream(className + ".class");
-		if (stream == null) return false;
-
-		ClassReader reader = null;
-		try {
-			reader = new ClassReader(stream);
-		} catch (IOException e) { return false; }
-
-		int itemCount = reader.getItemCount();
-		char[] buffer = new char[reader.getMaxStringLength()];
-
-		int matches = 0;
-
-		for (int n = 1; n < itemCount; n++)	{
-			int pos = reader.getItem(n);
-			if (pos == 0 || reader.b[pos - 1] != 8) continue;
-
-			Arrays.fill(buffer, (char)0);
-			String string = reader.readUTF8(pos,  buffer).trim();
-			//String string = (new String(buffer)).trim();
-
-			for (int n2 = 0; n2 < matchStrings.length; n2++) {
-				if (string.equals(matchStrings[n2].trim())) { matches++; break; }
-			}
-		}
-
-		return (matches == matchStrings.length);
+		IncrementalMappings.readClass(className);
+		ConstantPoolIndex index = ConstantPoolIndex.get(className);
+		if (index == null) return false;
+		return index.hasStrings(matchStrings);
 	}
 
 
@@ -674,34 +954,65 @@ public class DynamicMappings
 	 */
 	public static boolean searchConstantPoolForClasses(String className, String... matchStrings)
 	{
-		className = className.replace(".", "/");
-		InputStream stream = DynamicMappings.class.getClassLoader().getResourceAsStream(className + ".class");
-		if (stream == null) return false;
+		IncrementalMappings.readClass(className);
+		ConstantPoolIndex index = ConstantPoolIndex.get(className);
+		if (index == null) return false;
+		return index.hasClasses(matchStrings);
+	}
 
-		ClassReader reader = null;
-		try {
-			reader = new ClassReader(stream);
-		} catch (IOException e) { return false; }
 
-		int itemCount = reader.getItemCount();
-		char[] buffer = new char[reader.getMaxStringLength()];
+	/**
+	 * Searches a class's constant pool for the specified list of field
+	 * references.
+	 *
+	 * @param className - The name of the class to search.
+	 * @param fields - The fields to find, in "owner name desc" format.
+	 * @return True if all fields were found.
+	 */
+	public static boolean searchConstantPoolForFields(String className, String... fields)
+	{
+		IncrementalMappings.readClass(className);
+		ConstantPoolIndex index = ConstantPoolIndex.get(className);
+		if (index == null) return false;
+		return index.hasFieldRefs(fields);
+	}
 
-		int matches = 0;
 
-		for (int n = 1; n < itemCount; n++)	{
-			int pos = reader.getItem(n);
-			if (pos == 0 || reader.b[pos - 1] != 7) continue;
+	/**
+	 * Finds every class in the Minecraft jar whose constant pool contains all
+	 * of the specified strings.  The jar is indexed the first time this is
+	 * called, after which lookups don't need to read any class files.
+	 *
+	 * NOTE: Constant pool strings are trimmed of whitespace, same as with
+	 * searchConstantPoolForStrings.
+	 *
+	 * @param matchStrings - The list of strings to find.
+	 * @return The names of all matching classes.
+	 */
+	public static Set<String> findClassesWithStrings(String... matchStrings)
+	{
+		IncrementalMappings.readWholeJar();
+		StringIndex index = getStringIndex();
+		if (index == null) return new HashSet<String>();
+		return index.findClassesWithStrings(matchStrings);
+	}
 
-			Arrays.fill(buffer, (char)0);
-			String string = reader.readUTF8(pos,  buffer);
-			//String string = (new String(buffer)).trim();
 
-			for (int n2 = 0; n2 < matchStrings.length; n2++) {
-				if (string.equals(matchStrings[n2].replace(".", "/"))) { matches++; break; }
-			}
-		}
+	private static synchronized StringIndex getStringIndex()
+	{
+		if (stringIndex == null) stringIndex = StringIndex.build(getJarClassNames());
+		return stringIndex;
+	}
 
-		return (matches == matchStrings.length);
+
+	/**
+	 * @return The hierarchy of every class in the jar, built the first time
+	 * it's requested.
+	 */
+	public static synchronized ClassHierarchy getClassHierarchy()
+	{
+		if (classHierarchy == null) classHierarchy = ClassHierarchy.build(getJarClassNames());
+		return classHierarchy;
 	}
 
 
@@ -713,32 +1024,10 @@ public class DynamicMappings
 	 */
 	public static List<String> getConstantPoolStrings(String className)
 	{
-		List<String> strings = new ArrayList<String>();
-
-		className = className.replace(".", "/");
-		InputStream stream = DynamicMappings.class.getClassLoader().getResourceAsStream(className + ".class");
-		if (stream == null) return null;
-
-		ClassReader reader = null;
-		try {
-			reader = new ClassReader(stream);
-		} catch (IOException e) { return null; }
-
-		int itemCount = reader.getItemCount();
-		char[] buffer = new char[reader.getMaxStringLength()];
-
-		for (int n = 1; n < itemCount; n++)	{
-			int pos = reader.getItem(n);
-			if (pos == 0 || reader.b[pos - 1] != 8) continue;
-
-			Arrays.fill(buffer, (char)0);
-			String string = reader.readUTF8(pos,  buffer);
-			//String string = (new String(buffer)).trim();
-
-			strings.add(string);
-		}
-
-		return strings;
+		IncrementalMappings.readClass(className);
+		ConstantPoolIndex index = ConstantPoolIndex.get(className);
+		if (index == null) return null;
+		return index.getStrings();
 	}
 
 
@@ -750,38 +1039,10 @@ public class DynamicMappings
 	 */
 	public static Set<String> getConstantPoolClasses(String className, boolean processArrays)
 	{
-		Set<String> strings = new HashSet<String>();
-
-		className = className.replace(".", "/");
-		InputStream stream = DynamicMappings.class.getClassLoader().getResourceAsStream(className + ".class");
-		if (stream == null) return null;
-
-		ClassReader reader = null;
-		try {
-			reader = new ClassReader(stream);
-		} catch (IOException e) { return null; }
-
-		int itemCount = reader.getItemCount();
-		char[] buffer = new char[reader.getMaxStringLength()];
-
-		for (int n = 1; n < itemCount; n++)	{
-			int pos = reader.getItem(n);
-			if (pos == 0 || reader.b[pos - 1] != 7) continue;
-
-			Arrays.fill(buffer, (char)0);
-			String string = reader.readUTF8(pos,  buffer);
-			//String string = (new String(buffer)).trim();
-
-			if (string.startsWith("[") && processArrays) {
-				string = ModMappings.getArrayType(string);
-				if (string == null) continue;
-			}
-			if (string.length() < 1) continue;
-
-			strings.add(string);
-		}
-
-		return strings;
+		IncrementalMappings.readClass(className);
+		ConstantPoolIndex index = ConstantPoolIndex.get(className);
+		if (index == null) return null;
+		return index.getClasses(processArrays);
 	}
 
 
@@ -1034,7 +1295,10 @@ public class DynamicMappings
 	 */
 	public static String getClassMapping(String deobfClassName)
 	{
-		return classMappings.get(deobfClassName.replace(".",  "/"));
+		MappingSnapshot published = snapshot;
+		if (published != null) return published.getClassMapping(deobfClassName.replace(".",  "/"));
+		deobfClassName = deobfClassName.replace(".",  "/");
+		return IncrementalMappings.readMapping(IncrementalMappings.CLASS, deobfClassName, classMappings.get(deobfClassName));
 	}
 
 
@@ -1046,7 +1310,10 @@ public class DynamicMappings
 	 */
 	public static String getReverseClassMapping(String obfClassName)
 	{
-		return reverseClassMappings.get(obfClassName.replace(".",  "/"));
+		MappingSnapshot published = snapshot;
+		if (published != null) return published.getReverseClassMapping(obfClassName.replace(".",  "/"));
+		obfClassName = obfClassName.replace(".",  "/");
+		return IncrementalMappings.readMapping(IncrementalMappings.REVERSE_CLASS, obfClassName, reverseClassMappings.get(obfClassName));
 	}
 
 
@@ -1070,7 +1337,7 @@ public class DynamicMappings
 	 * @param deobfClassName - The deobfuscated class name.
 	 * @param obfClassName - The obfuscated class name.
 	 */
-	public static void addClassMapping(String deobfClassName, String obfClassName)
+	public static synchronized void addClassMapping(String deobfClassName, String obfClassName)
 	{
 		deobfClassName = deobfClassName.replace(".", "/");
 		obfClassName = obfClassName.replace(".", "/");
@@ -1082,12 +1349,18 @@ public class DynamicMappings
 
 		classMappings.put(deobfClassName, obfClassName);
 		reverseClassMappings.put(obfClassName, deobfClassName);
+		IncrementalMappings.wroteMapping(IncrementalMappings.CLASS, deobfClassName, obfClassName);
 	}
 
 
 	// Both inputs in the format of "class_name method_name method_desc"
-	public static void addMethodMapping(String deobfMethodDesc, String obfMethodDesc)
+	public static synchronized void addMethodMapping(String deobfMethodDesc, String obfMethodDesc)
 	{
+		if (deobfMethodDesc == null || obfMethodDesc == null) {
+			System.out.println("WARNING: Ignoring incomplete method mapping " + deobfMethodDesc + " -> " + obfMethodDesc);
+			return;
+		}
+
 		if (classMappings.containsKey(deobfMethodDesc) && !classMappings.get(deobfMethodDesc).equals(obfMethodDesc))
 			System.out.println("WARNING: " + deobfMethodDesc + " has been remapped from " + classMappings.get(deobfMethodDesc) + " to " + obfMethodDesc);
 		if (reverseClassMappings.containsKey(obfMethodDesc) && !reverseClassMappings.get(obfMethodDesc).equals(deobfMethodDesc))
@@ -1095,12 +1368,18 @@ public class DynamicMappings
 
 		methodMappings.put(deobfMethodDesc, obfMethodDesc);
 		reverseMethodMappings.put(obfMethodDesc, deobfMethodDesc);
+		IncrementalMappings.wroteMapping(IncrementalMappings.METHOD, deobfMethodDesc, obfMethodDesc);
 	}
 
 
 	// Both inputs in the format of "class_name field_name field_desc"
-	public static void addFieldMapping(String deobfFieldDesc, String obfFieldDesc)
+	public static synchronized void addFieldMapping(String deobfFieldDesc, String obfFieldDesc)
 	{
+		if (deobfFieldDesc == null || obfFieldDesc == null) {
+			System.out.println("WARNING: Ignoring incomplete field mapping " + deobfFieldDesc + " -> " + obfFieldDesc);
+			return;
+		}
+
 		if (classMappings.containsKey(deobfFieldDesc) && !classMappings.get(deobfFieldDesc).equals(obfFieldDesc))
 			System.out.println("WARNING: " + deobfFieldDesc + " has been remapped from " + classMappings.get(deobfFieldDesc) + " to " + obfFieldDesc);
 		if (reverseClassMappings.containsKey(obfFieldDesc) && !reverseClassMappings.get(obfFieldDesc).equals(deobfFieldDesc))
@@ -1108,47 +1387,80 @@ public class DynamicMappings
 
 		fieldMappings.put(deobfFieldDesc, obfFieldDesc);
 		reverseFieldMappings.put(obfFieldDesc, deobfFieldDesc);
+		IncrementalMappings.wroteMapping(IncrementalMappings.FIELD, deobfFieldDesc, obfFieldDesc);
 	}
 
 
 	public static String getMethodMapping(String className, String methodName, String methodDesc)
 	{
-		return methodMappings.get(className + " " + methodName + " " + methodDesc);
+		MappingSnapshot published = snapshot;
+		MemberRef mapping = published != null ? published.getMethodMapping(className, methodName, methodDesc)
+				: IncrementalMappings.readMember(IncrementalMappings.METHOD, className, methodName, methodDesc,
+						MemberMappings.get(methodMappings, className, methodName, methodDesc));
+		return mapping != null ? mapping.toString() : null;
+	}
+
+
+	public static MemberRef getMethodMapping(MemberRef method)
+	{
+		MappingSnapshot published = snapshot;
+		if (published != null) return published.getMethodMapping(method.owner, method.name, method.desc);
+		return IncrementalMappings.readMapping(IncrementalMappings.METHOD, method, ((MemberMappings)methodMappings).get(method));
 	}
 
 
 	public static String getMethodMapping(String mapping)
 	{
-		return methodMappings.get(mapping);
+		MappingSnapshot published = snapshot;
+		if (published != null) return published.getMethodMapping(mapping);
+		return IncrementalMappings.readMapping(IncrementalMappings.METHOD, mapping, methodMappings.get(mapping));
 	}
 
 	public static String getReverseMethodMapping(String obfMethod)
 	{
-		return reverseMethodMappings.get(obfMethod);
+		MappingSnapshot published = snapshot;
+		if (published != null) return published.getReverseMethodMapping(obfMethod);
+		return IncrementalMappings.readMapping(IncrementalMappings.REVERSE_METHOD, obfMethod, reverseMethodMappings.get(obfMethod));
 	}
 
 
 	public static String getFieldMapping(String mapping)
 	{
-		return fieldMappings.get(mapping);
+		MappingSnapshot published = snapshot;
+		if (published != null) return published.getFieldMapping(mapping);
+		return IncrementalMappings.readMapping(IncrementalMappings.FIELD, mapping, fieldMappings.get(mapping));
+	}
+
+
+	public static MemberRef getFieldMapping(MemberRef field)
+	{
+		MappingSnapshot published = snapshot;
+		if (published != null) return published.getFieldMapping(field.owner, field.name, field.desc);
+		return IncrementalMappings.readMapping(IncrementalMappings.FIELD, field, ((MemberMappings)fieldMappings).get(field));
 	}
 
 
 	public static String getReverseFieldMapping(String obfField)
 	{
-		return reverseFieldMappings.get(obfField);
+		MappingSnapshot published = snapshot;
+		if (published != null) return published.getReverseFieldMapping(obfField);
+		return IncrementalMappings.readMapping(IncrementalMappings.REVERSE_FIELD, obfField, reverseFieldMappings.get(obfField));
 	}
 
 
 	public static FieldNode getFieldNode(ClassNode cn, String obfMapping)
 	{
-		if (cn == null || obfMapping == null) return null;
+		if (obfMapping == null) return null;
+		return getFieldNode(cn, MemberRef.parse(obfMapping));
+	}
+
 
-		String[] split = obfMapping.split(" ");
-		if (split.length < 3) return null;
+	public static FieldNode getFieldNode(ClassNode cn, MemberRef obfField)
+	{
+		if (cn == null || obfField == null) return null;
 
 		for (FieldNode field : cn.fields) {
-			if (field.name.equals(split[1]) && field.desc.equals(split[2])) {
+			if (field.name.equals(obfField.name) && field.desc.equals(obfField.desc)) {
 				return field;
 			}
 		}
@@ -1159,41 +1471,35 @@ public class DynamicMappings
 
 	public static FieldNode getFieldNodeFromMapping(ClassNode cn, String deobfMapping)
 	{
-		String mapping = getFieldMapping(deobfMapping);
-		if (cn == null || mapping == null) return null;
-
-		String[] split = mapping.split(" ");
-		if (split.length < 3) return null;
-
-		for (FieldNode field : cn.fields) {
-			if (field.name.equals(split[1]) && field.desc.equals(split[2])) {
-				return field;
-			}
-		}
-
-		return null;
+		if (cn == null) return null;
+		return getFieldNode(cn, IncrementalMappings.readMapping(IncrementalMappings.FIELD, deobfMapping, MemberMappings.get(fieldMappings, deobfMapping)));
 	}
 
 
 	// Returns just the obfuscated name of a method matching the deobfuscated input
 	public static String getMethodMappingName(String className, String methodName, String methodDesc)
 	{
-		String mapping = getMethodMapping(className, methodName, methodDesc);
-		if (mapping == null) return null;
-		String [] split = mapping.split(" ");
-		return split.length >= 3 ? split[1] : null;
+		MappingSnapshot published = snapshot;
+		MemberRef mapping = published != null ? published.getMethodMapping(className, methodName, methodDesc)
+				: IncrementalMappings.readMember(IncrementalMappings.METHOD, className, methodName, methodDesc,
+						MemberMappings.get(methodMappings, className, methodName, methodDesc));
+		return mapping != null ? mapping.name : null;
 	}
 
 
 	public static MethodNode getMethodNode(ClassNode cn, String obfMapping)
 	{
-		if (cn == null || obfMapping == null) return null;
+		if (obfMapping == null) return null;
+		return getMethodNode(cn, MemberRef.parse(obfMapping));
+	}
 
-		String[] split = obfMapping.split(" ");
-		if (split.length < 3) return null;
+
+	public static MethodNode getMethodNode(ClassNode cn, MemberRef obfMethod)
+	{
+		if (cn == null || obfMethod == null) return null;
 
 		for (MethodNode method : cn.methods) {
-			if (method.name.equals(split[1]) && method.desc.equals(split[2])) {
+			if (method.name.equals(obfMethod.name) && method.desc.equals(obfMethod.desc)) {
 				return method;
 			}
 		}
@@ -1204,19 +1510,8 @@ public class DynamicMappings
 
 	public static MethodNode getMethodNodeFromMapping(ClassNode cn, String deobfMapping)
 	{
-		String mapping = getMethodMapping(deobfMapping);
-		if (cn == null || mapping == null) return null;
-
-		String[] split = mapping.split(" ");
-		if (split.length < 3) return null;
-
-		for (MethodNode method : cn.methods) {
-			if (method.name.equals(split[1]) && method.desc.equals(split[2])) {
-				return method;
-			}
-		}
-
-		return null;
+		if (cn == null) return null;
+		return getMethodNode(cn, IncrementalMappings.readMapping(IncrementalMappings.METHOD, deobfMapping, MemberMappings.get(methodMappings, deobfMapping)));
 	}
 
 
@@ -1249,12 +1544,11 @@ public class DynamicMappings
 
 	public static boolean isSubclassOf(String className, String superClassName)
 	{
-		InputStream stream = DynamicMappings.class.getClassLoader().getResourceAsStream(className + ".class");
-		if (stream == null) return false;
-		ClassReader reader = null;
-		try {
-			reader = new ClassReader(stream);
-		} catch (IOException e) {}
+		IncrementalMappings.readHierarchy(className);
+		ClassHierarchy hierarchy = getClassHierarchy();
+		if (hierarchy.contains(className)) return hierarchy.isSubclassOf(className, superClassName);
+
+		ClassReader reader = getClassReader(className);
 		if (reader == null) return false;
 
 		String superName = reader.getSuperName();
@@ -1342,8 +1636,13 @@ public class DynamicMappings
 	public static boolean doesInheritFrom(String className, String inheritFrom)
 	{
 		if (className.equals(inheritFrom)) return true;
+		IncrementalMappings.readHierarchy(className);
 
-		ClassNode cn = getClassNode(className);
+		// Only classes outside the jar need the slow path
+		ClassHierarchy hierarchy = getClassHierarchy();
+		if (hierarchy.contains(className)) return hierarchy.isAssignable(className, inheritFrom);
+
+		ClassNode cn = getClassNodeSkeleton(className);
 		if (cn == null) return false;
 
 		List<String> classes = new ArrayList<>();
@@ -1477,6 +1776,7 @@ public class DynamicMappings
 
 	public static void reset()
 	{
+		snapshot = null;
 		classMappings.clear();
 		reverseClassMappings.clear();
 		fieldMappings.clear();
@@ -1487,7 +1787,15 @@ public class DynamicMappings
 		clientMappingsSet.clear();
 		serverMappingsSet.clear();
 
-		cachedClassNodes.clear();
+		classNodeCache.clear();
+		skeletonNodeCache.clear();
+		ConstantPoolIndex.clearCache();
+		synchronized (DynamicMappings.class) {
+			stringIndex = null;
+			classHierarchy = null;
+			classSource = null;
+			classSourceChecked = false;
+		}
 	}
 
 
@@ -6,12 +6,25 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.JarURLConnection;
 import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.BitSet;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -19,6 +32,9 @@ import org.objectweb.asm.Attribute;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.commons.Remapper;
 import org.objectweb.asm.commons.RemappingClassAdapter;
@@ -44,8 +60,19 @@ public class DynamicRemap
 	public static String unpackagedPrefix = "net/minecraft/class_";
 	public static String unpackagedInnerPrefix = "innerclass_";
 	
+	/** If set to true, main remaps classes on a pool of threads, see writeRemappedJarParallel */
+	public static boolean parallelRemap = Boolean.getBoolean("dynamicmappings.parallelremap");
+	/** Number of worker threads used when parallelRemap is enabled */
+	public static int remapThreads = Runtime.getRuntime().availableProcessors();
+	
 	public InheritanceMap inheritanceMapper = new InheritanceMap();
 	
+	/** Owner, name, desc -> new member name, including inherited members.  See resolveMembers. */
+	private MemberTable resolvedFields = null;
+	private MemberTable resolvedMethods = null;
+	/** Classes whose members are all in the resolved tables */
+	private volatile Set<String> resolvedOwners = null;
+	
 	
 	
 	public DynamicRemap(Map<String, String> cm, Map<String, String> fm, Map<String, String> mm)
@@ -62,6 +89,64 @@ public class DynamicRemap
 	}
 	
 	
+	/**
+	 * Resolves the new name of every field and method of the specified
+	 * classes up front, including members they inherit, so the remapper can
+	 * rename references to them with a single lookup.  References to any
+	 * other class are still resolved through the inheritance map as they're
+	 * found.
+	 * 
+	 * Mappings added after this is called won't be picked up for these classes.
+	 * 
+	 * @param classNames - The classes to resolve, usually everything in the jar.
+	 */
+	public void resolveMembers(Iterable<String> classNames)
+	{
+		MemberTable fields = new MemberTable();
+		MemberTable methods = new MemberTable();
+		Set<String> owners = new HashSet<String>();
+		
+		for (String className : classNames)
+		{
+			ClassNode cn = DynamicMappings.getClassNodeSkeleton(className);
+			if (cn == null) continue;
+			
+			InheritanceMap map = null;
+			try {
+				map = inheritanceMapper.buildMap(cn);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			if (map == null) continue;
+			
+			for (Set<FieldHolder> holders : map.fields.values()) {
+				for (FieldHolder holder : holders) {
+					MemberRef mapping = MemberMappings.get(fieldMappings, holder.cn.name, holder.fn.name, holder.fn.desc);
+					if (mapping == null) continue;
+					fields.put(cn.name, holder.fn.name, holder.fn.desc, mapping.name);
+					break;
+				}
+			}
+			
+			for (Set<MethodHolder> holders : map.methods.values()) {
+				for (MethodHolder holder : holders) {
+					MemberRef mapping = MemberMappings.get(methodMappings, holder.cn.name, holder.mn.name, holder.mn.desc);
+					if (mapping == null) continue;
+					methods.put(cn.name, holder.mn.name, holder.mn.desc, mapping.name);
+					break;
+				}
+			}
+			
+			owners.add(cn.name);
+		}
+		
+		resolvedFields = fields;
+		resolvedMethods = methods;
+		// Published last, since the remapper only reads the tables once it sees this
+		resolvedOwners = owners;
+	}
+	
+	
 	
 	private boolean isObfInner(String s)
 	{
@@ -116,7 +201,13 @@ public class DynamicRemap
 		@Override
 		public String mapFieldName(String owner, String name, String desc)
 		{			
-			ClassNode cn = getClassNode(owner);			
+			Set<String> owners = resolvedOwners;
+			if (owners != null && owners.contains(owner)) {
+				String mapped = resolvedFields.get(owner, name, desc);
+				return super.mapFieldName(owner, mapped != null ? mapped : name, desc);
+			}
+			
+			ClassNode cn = DynamicMappings.getClassNodeSkeleton(owner);			
 			if (cn == null) return super.mapFieldName(owner, name, desc);
 			
 			InheritanceMap map = null;
@@ -130,12 +221,8 @@ public class DynamicRemap
 			if (fields == null) return super.mapFieldName(owner, name, desc);
 			
 			for (FieldHolder holder : fields) {			
-				String key = holder.cn.name + " " + holder.fn.name + " " + holder.fn.desc;
-				if (fieldMappings.containsKey(key)) {
-					String mapping = fieldMappings.get(key);
-					String[] split = mapping.split(" ");
-					return super.mapFieldName(owner, split[1], desc);
-				}
+				MemberRef mapping = MemberMappings.get(fieldMappings, holder.cn.name, holder.fn.name, holder.fn.desc);
+				if (mapping != null) return super.mapFieldName(owner, mapping.name, desc);
 			}
 			
 			return super.mapFieldName(owner,  name,  desc);
@@ -149,7 +236,13 @@ public class DynamicRemap
 			
 			if (showMapMethod) System.out.println("mapMethod: " + owner + " " + name + " " + desc);
 			
-			ClassNode cn = getClassNode(owner);			
+			Set<String> owners = resolvedOwners;
+			if (owners != null && owners.contains(owner)) {
+				String mapped = resolvedMethods.get(owner, name, desc);
+				return super.mapMethodName(owner, mapped != null ? mapped : name, desc);
+			}
+			
+			ClassNode cn = DynamicMappings.getClassNodeSkeleton(owner);			
 			if (cn == null) return super.mapMethodName(owner, name, desc);
 						
 			InheritanceMap map = null;
@@ -164,15 +257,12 @@ public class DynamicRemap
 			
 			
 			for (MethodHolder holder : methods) {			
-				String key = holder.cn.name + " " + holder.mn.name + " " + holder.mn.desc;
-				if (showMapMethod) System.out.println("Key: " + key);
+				if (showMapMethod) System.out.println("Key: " + holder.cn.name + " " + holder.mn.name + " " + holder.mn.desc);
 				
-				if (methodMappings.containsKey(key)) {
+				MemberRef mapping = MemberMappings.get(methodMappings, holder.cn.name, holder.mn.name, holder.mn.desc);
+				if (mapping != null) {
 					if (showMapMethod) System.out.println("    HAS KEY");
-					String mapping = methodMappings.get(key);	
-					//System.out.println(mapping);
-					String[] split = mapping.split(" ");
-					return super.mapMethodName(owner, split[1], desc);
+					return super.mapMethodName(owner, mapping.name, desc);
 				}
 			}
 			
@@ -185,8 +275,9 @@ public class DynamicRemap
 	{
 		if (className == null) return null;
 		
-		InputStream stream = getClass().getClassLoader().getResourceAsStream(className + ".class");
-		return remapClass(stream);
+		ClassReader reader = DynamicMappings.getClassReader(className);
+		if (reader == null) return null;
+		return remapClass(reader);
 	}
 	
 	
@@ -255,11 +346,22 @@ public class DynamicRemap
 	
 	
 	public ClassNode remapClass(ClassReader reader)
+	{
+		return remapClass(reader, null);
+	}
+	
+	
+	/**
+	 * Remaps the class, applying the access transformers to it on the way
+	 * through if accessUtil isn't null.
+	 */
+	public ClassNode remapClass(ClassReader reader, AccessUtil accessUtil)
 	{
 		boolean showDebug = false;
 		
 		ClassNode cn = new ClassNode();		
-		reader.accept(new CustomRemappingClassAdapter(cn, new MyRemapper(cn, showDebug)), ClassReader.EXPAND_FRAMES);		
+		ClassVisitor cv = accessUtil != null ? accessUtil.getClassVisitor(cn) : cn;
+		reader.accept(new CustomRemappingClassAdapter(cv, new MyRemapper(cn, showDebug)), ClassReader.EXPAND_FRAMES);		
 		
 		// Fix obfuscation of local variable names
 		for (MethodNode method : cn.methods)
@@ -285,6 +387,134 @@ public class DynamicRemap
 		
 		return cn;
 	}
+	
+	
+	/**
+	 * Remaps a class straight from the reader to a ClassWriter, without
+	 * building a ClassNode.  Does the same as remapClass followed by
+	 * writing the node, and also corrects the source filename and applies
+	 * the access transformers if accessUtil isn't null.
+	 * 
+	 * The reader isn't passed on to the ClassWriter: every method goes
+	 * through the remapper, so ASM couldn't copy any of them as-is anyway,
+	 * and the copied constant pool would keep all the obfuscated names.
+	 */
+	public byte[] remapClassStreaming(ClassReader reader, AccessUtil accessUtil)
+	{
+		ClassWriter writer = new ClassWriter(0);
+		
+		ClassVisitor cv = accessUtil != null ? accessUtil.getClassVisitor(writer) : writer;
+		cv = new SourceFileFixer(cv);
+		cv = new LocalVariableNamer(cv);
+		reader.accept(new CustomRemappingClassAdapter(cv, new MyRemapper(null, false)), ClassReader.EXPAND_FRAMES);
+		
+		return writer.toByteArray();
+	}
+	
+	
+	/**
+	 * Streaming version of the local variable fix in remapClass: names
+	 * obfuscated locals starting at the first instruction paramN, and the
+	 * rest varN.
+	 */
+	private static class LocalVariableNamer extends ClassVisitor
+	{
+		LocalVariableNamer(ClassVisitor cv)
+		{
+			super(Opcodes.ASM5, cv);
+		}
+		
+		@Override
+		public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions)
+		{
+			MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+			return mv != null ? new MethodNamer(mv) : null;
+		}
+	}
+	
+	
+	private static class MethodNamer extends MethodVisitor
+	{
+		/** Label before the first instruction, if the code starts with one */
+		private Label firstLabel = null;
+		private boolean started = false;
+		private int paramCount = 0;
+		private int varCount = 0;
+		
+		MethodNamer(MethodVisitor mv)
+		{
+			super(Opcodes.ASM5, mv);
+		}
+		
+		@Override
+		public void visitLabel(Label label)
+		{
+			if (!started) firstLabel = label;
+			started = true;
+			super.visitLabel(label);
+		}
+		
+		// Anything else in the code means the first label, if any, isn't first
+		@Override public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) { started = true; super.visitFrame(type, nLocal, local, nStack, stack); }
+		@Override public void visitInsn(int opcode) { started = true; super.visitInsn(opcode); }
+		@Override public void visitIntInsn(int opcode, int operand) { started = true; super.visitIntInsn(opcode, operand); }
+		@Override public void visitVarInsn(int opcode, int var) { started = true; super.visitVarInsn(opcode, var); }
+		@Override public void visitTypeInsn(int opcode, String type) { started = true; super.visitTypeInsn(opcode, type); }
+		@Override public void visitFieldInsn(int opcode, String owner, String name, String desc) { started = true; super.visitFieldInsn(opcode, owner, name, desc); }
+		@Override public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) { started = true; super.visitMethodInsn(opcode, owner, name, desc, itf); }
+		@Override public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) { started = true; super.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs); }
+		@Override public void visitJumpInsn(int opcode, Label label) { started = true; super.visitJumpInsn(opcode, label); }
+		@Override public void visitLdcInsn(Object cst) { started = true; super.visitLdcInsn(cst); }
+		@Override public void visitIincInsn(int var, int increment) { started = true; super.visitIincInsn(var, increment); }
+		@Override public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) { started = true; super.visitTableSwitchInsn(min, max, dflt, labels); }
+		@Override public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) { started = true; super.visitLookupSwitchInsn(dflt, keys, labels); }
+		@Override public void visitMultiANewArrayInsn(String desc, int dims) { started = true; super.visitMultiANewArrayInsn(desc, dims); }
+		@Override public void visitLineNumber(int line, Label start) { started = true; super.visitLineNumber(line, start); }
+		
+		@Override
+		public void visitLocalVariable(String name, String desc, String signature, Label start, Label end, int index)
+		{
+			if (name.equals("\u2603")) {
+				if (start == firstLabel) name = "param" + paramCount++;
+				else name = "var" + varCount++;
+			}
+			super.visitLocalVariable(name, desc, signature, start, end, index);
+		}
+	}
+	
+	
+	/**
+	 * Replaces the "SourceFile" placeholder left by the obfuscator with the
+	 * name of the outermost class.
+	 */
+	private static class SourceFileFixer extends ClassVisitor
+	{
+		private String className;
+		
+		SourceFileFixer(ClassVisitor cv)
+		{
+			super(Opcodes.ASM5, cv);
+		}
+		
+		@Override
+		public void visit(int version, int access, String name, String signature, String superName, String[] interfaces)
+		{
+			className = name;
+			super.visit(version, access, name, signature, superName, interfaces);
+		}
+		
+		@Override
+		public void visitSource(String source, String debug)
+		{
+			if (source != null && source.equals("SourceFile")) {
+				String sourceName = className;
+				if (sourceName.indexOf('$') >= 0)
+					sourceName = sourceName.substring(0, sourceName.indexOf('$'));
+				source = sourceName + ".java";
+			}
+			super.visitSource(source, debug);
+		}
+	}
 		
 	
 	public static byte[] getFileFromZip(ZipEntry entry, ZipFile zipFile)
@@ -314,34 +544,275 @@ public class DynamicRemap
 	
 	
 	/**
-	 * Parses the jar to find any unmapped child classes of any of the specified 
-	 * classes, then gives them generic names and repackages them.
+	 * Finds any unmapped child classes of any of the specified classes, then
+	 * gives them generic names and repackages them.
+	 * 
+	 * Each base class's descendants are walked once, top-down, through the
+	 * class hierarchy.  A class inheriting from more than one of the base
+	 * classes goes with whichever is listed first, and since all of its
+	 * descendants were reached through the same walk, later walks stop as
+	 * soon as they hit a class that's already been visited.
 	 * 
-	 * @param mcJar - The obfuscated Minecraft jar
+	 * Inner classes are never mapped on their own, since they have to stay
+	 * in the same package as their outer class.  If an inner class is an
+	 * unknown child and its outermost class isn't mapped, the outermost
+	 * class is given a generic name under the same prefix, and the inner
+	 * class moves along with it.
+	 * 
+	 * @param mcJar - The obfuscated Minecraft jar, which must be the one DynamicMappings is using
 	 * @param baseClasses - List of deobfuscated class names to discover children for
 	 */
 	public static void remapUnknownChildren(JarFile mcJar, String ... baseClasses )
 	{
-		for (Enumeration<JarEntry> enumerator = mcJar.entries(); enumerator.hasMoreElements();)
+		ClassHierarchy hierarchy = DynamicMappings.getClassHierarchy();
+		
+		BitSet visited = new BitSet(hierarchy.size());
+		Map<String, String> found = new LinkedHashMap<String, String>();
+		ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+		
+		for (String mappedClass : baseClasses)
 		{
-			JarEntry entry = enumerator.nextElement();
-			String filename = entry.getName();				
-			if (!filename.endsWith(".class")) continue;
-			String className = filename.substring(0, filename.length() - 6);
+			String baseClass = DynamicMappings.getClassMapping(mappedClass);
+			if (baseClass == null) continue;
+			int baseId = hierarchy.getId(baseClass);
+			if (baseId < 0 || visited.get(baseId)) continue;
+			
+			String classPrefix = mappedClass + "Unknown_";
+			
+			visited.set(baseId);
+			queue.add(baseId);
+			while (!queue.isEmpty())
+			{
+				int id = queue.poll();
+				String className = hierarchy.getName(id);
+				if (!DynamicMappings.reverseClassMappings.containsKey(className)) found.put(className, classPrefix + className);
+				
+				for (int child : hierarchy.getChildIds(id)) {
+					if (visited.get(child)) continue;
+					visited.set(child);
+					queue.add(child);
+				}
+			}
+		}
+		
+		for (Map.Entry<String, String> entry : found.entrySet())
+		{
+			String className = entry.getKey();
 			
-			if (className.contains("$")) continue;
+			int inner = className.indexOf('$');
+			if (inner < 0) {
+				DynamicMappings.addClassMapping(entry.getValue(), className);
+				continue;
+			}
 			
-			for (String mappedClass : baseClasses) {
+			// Inner classes have to stay in the same package as their outer class, so the
+			// outermost class is moved instead and they follow it through MyRemapper.map
+			String outer = className.substring(0, inner);
+			if (DynamicMappings.reverseClassMappings.containsKey(outer) || found.containsKey(outer) || !hierarchy.contains(outer)) continue;
 			
-				String baseClass = DynamicMappings.getClassMapping(mappedClass);
-				String classPrefix = mappedClass + "Unknown_";			
+			String classPrefix = entry.getValue().substring(0, entry.getValue().length() - className.length());
+			DynamicMappings.addClassMapping(classPrefix + outer, outer);
+		}
+	}
+	
+	
+	
+	/**
+	 * An entry ready to be written to the output jar, either as new data or
+	 * as a raw copy of an entry in the input jar.
+	 */
+	private static class OutputEntry
+	{
+		final String name;
+		final byte[] bytes;
+		final MappedJarClassSource.Entry raw;
 		
-				if (baseClass != null && DynamicMappings.doesInheritFrom(className, baseClass) && !DynamicMappings.reverseClassMappings.containsKey(className)) {
-					DynamicMappings.addClassMapping(classPrefix + className, className);
-					break;
+		OutputEntry(String name, byte[] bytes)
+		{
+			this.name = name;
+			this.bytes = bytes;
+			this.raw = null;
+		}
+		
+		OutputEntry(MappedJarClassSource.Entry raw)
+		{
+			this.name = raw.name;
+			this.bytes = null;
+			this.raw = raw;
+		}
+	}
+	
+	
+	/**
+	 * Remaps and access transforms a class if the entry is one, otherwise
+	 * passes it through unchanged.
+	 * 
+	 * @return The entry to write, or null if it should be left out.
+	 */
+	private static OutputEntry processEntry(String name, byte[] bytes, DynamicRemap remapper, AccessUtil accessUtil)
+	{
+		if (!name.endsWith(".class")) return new OutputEntry(name, bytes);
+		
+		byte[] mapped = remapper.remapClassStreaming(new ClassReader(bytes), accessUtil);
+		return new OutputEntry(new ClassReader(mapped).getClassName() + ".class", mapped);
+	}
+	
+	
+	private static boolean isSkippedEntry(String name)
+	{
+		return name.startsWith("META-INF/") && (name.endsWith(".RSA") || name.endsWith(".SF"));
+	}
+	
+	
+	private static void writeEntry(JarWriter outJar, MappedJarClassSource source, OutputEntry output) throws IOException
+	{
+		if (output.raw != null) outJar.copyEntry(source, output.raw);
+		else outJar.writeEntry(output.name, output.bytes);
+	}
+	
+	
+	/**
+	 * @return The entry as a raw copy if it isn't a class and the source can
+	 * provide it, otherwise null.
+	 */
+	private static OutputEntry getPassthroughEntry(String name, MappedJarClassSource source)
+	{
+		if (source == null || name.endsWith(".class")) return null;
+		MappedJarClassSource.Entry raw = source.getEntry(name);
+		return raw != null ? new OutputEntry(raw) : null;
+	}
+	
+	
+	/**
+	 * Remaps every class in the jar one at a time, writing them and any
+	 * other files to the output jar.  Files other than classes are copied
+	 * without being decompressed when possible.
+	 * 
+	 * @throws IOException If an entry couldn't be written, in which case the
+	 * output jar is incomplete.
+	 */
+	public static void writeRemappedJar(JarFile jar, JarWriter outJar, DynamicRemap remapper, AccessUtil accessUtil) throws IOException
+	{
+		MappedJarClassSource source = MappedJarClassSource.build(new File(jar.getName()));
+		
+		for (Enumeration<JarEntry> enumerator = jar.entries(); enumerator.hasMoreElements();)
+		{
+			JarEntry entry = enumerator.nextElement();
+			if (isSkippedEntry(entry.getName())) continue;
+			
+			OutputEntry output = getPassthroughEntry(entry.getName(), source);
+			if (output == null) output = processEntry(entry.getName(), getFileFromZip(entry, jar), remapper, accessUtil);
+			writeEntry(outJar, source, output);
+		}
+	}
+	
+	
+	/**
+	 * Same as writeRemappedJar, but pipelined: this thread reads entries
+	 * from the jar, a pool of workers remaps them, and a single writer
+	 * thread writes the results in the original entry order.
+	 * 
+	 * The queue between the reader and writer is bounded, so the reader
+	 * waits rather than pulling the whole jar into memory when the writer
+	 * falls behind.
+	 * 
+	 * The first entry that fails to remap or write stops the whole jar, and
+	 * its exception is thrown from here once the writer has stopped, the
+	 * same as writeRemappedJar.
+	 * 
+	 * @throws IOException If an entry couldn't be written, in which case the
+	 * output jar is incomplete.
+	 */
+	public static void writeRemappedJarParallel(JarFile jar, final JarWriter outJar, final DynamicRemap remapper, final AccessUtil accessUtil, int threads) throws IOException
+	{
+		final MappedJarClassSource source = MappedJarClassSource.build(new File(jar.getName()));
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		final BlockingQueue<Future<OutputEntry>> pending = new ArrayBlockingQueue<Future<OutputEntry>>(threads * 4);
+		final Future<OutputEntry> endOfJar = new FutureTask<OutputEntry>(new Runnable() { public void run() {} }, null);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		
+		// Stops at the first failure, and the reader stops queueing once it sees the writer is gone
+		Thread writerThread = new Thread("DynamicRemap writer") {
+			@Override
+			public void run()
+			{
+				try {
+					while (true) {
+						Future<OutputEntry> future = pending.take();
+						if (future == endOfJar) return;
+						writeEntry(outJar, source, future.get());
+					}
+				} catch (InterruptedException e) {
+					return;
+				} catch (ExecutionException e) {
+					failure.compareAndSet(null, e.getCause());
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
 				}
 			}
-		}	
+		};
+		writerThread.start();
+		
+		try {
+			for (Enumeration<JarEntry> enumerator = jar.entries(); enumerator.hasMoreElements();)
+			{
+				JarEntry entry = enumerator.nextElement();
+				final String name = entry.getName();
+				if (isSkippedEntry(name)) continue;
+				
+				// Raw copies don't need a worker, so skip straight to the writer
+				OutputEntry passthrough = getPassthroughEntry(name, source);
+				if (passthrough != null) {
+					FutureTask<OutputEntry> done = new FutureTask<OutputEntry>(new Runnable() { public void run() {} }, passthrough);
+					done.run();
+					if (!enqueue(pending, done, writerThread)) break;
+					continue;
+				}
+				
+				final byte[] bytes = getFileFromZip(entry, jar);
+				Future<OutputEntry> future = workers.submit(new Callable<OutputEntry>() {
+					@Override
+					public OutputEntry call()
+					{
+						return processEntry(name, bytes, remapper, accessUtil);
+					}
+				});
+				
+				// Blocks while the writer is too far behind
+				if (!enqueue(pending, future, writerThread)) break;
+			}
+			
+			enqueue(pending, endOfJar, writerThread);
+			writerThread.join();
+		}
+		catch (InterruptedException e) {
+			writerThread.interrupt();
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			workers.shutdownNow();
+		}
+		
+		Throwable e = failure.get();
+		if (e == null) return;
+		if (e instanceof IOException) throw (IOException)e;
+		if (e instanceof RuntimeException) throw (RuntimeException)e;
+		if (e instanceof Error) throw (Error)e;
+		throw new IOException(e);
+	}
+	
+	
+	/**
+	 * Queues an entry for the writer, waiting while the queue is full.
+	 * 
+	 * @return False if the writer stopped, so nothing more will be written.
+	 */
+	private static boolean enqueue(BlockingQueue<Future<OutputEntry>> pending, Future<OutputEntry> future, Thread writerThread) throws InterruptedException
+	{
+		while (!pending.offer(future, 100, TimeUnit.MILLISECONDS)) {
+			if (!writerThread.isAlive()) return false;
+		}
+		return true;
 	}
 	
 	
@@ -352,8 +823,12 @@ public class DynamicRemap
 		Parm outputParm = pp.addParm("-o",  1); // Output location
 		Parm clearMappersParm = pp.addParm("-clearmappers", 0);		
 		Parm addMapperParm = pp.addParm("-addmappers", 1);
+		Parm parallelParm = pp.addParm("-parallel", 0);
+		Parm mappingsParm = pp.addParm("-mappings", 1); // Binary mappings to use instead of generating them
 		pp.processArgs(args);
 		
+		if (parallelParm.found) parallelRemap = true;
+		
 		File outputFile = new File("mcremapped.jar");
 		if (outputParm.found) outputFile = new File(outputParm.getFirstResult());
 		
@@ -363,7 +838,15 @@ public class DynamicRemap
 			for (String mapper : split) DynamicMappings.MAPPINGS_CLASSES.add(mapper);
 		}
 		
-		DynamicMappings.generateClassMappings();
+		if (mappingsParm.found) {
+			try {
+				BinaryMappings.load(new File(mappingsParm.getFirstResult())).install();
+			} catch (IOException e) {
+				System.out.println("Couldn't load mappings from " + mappingsParm.getFirstResult() + ": " + e.getMessage());
+				return;
+			}
+		}
+		else DynamicMappings.generateClassMappings();
 
 		AccessUtil accessUtil = new AccessUtil();
 		accessUtil.readAllTransformerConfigs();	
@@ -386,6 +869,7 @@ public class DynamicRemap
 				DynamicMappings.reverseClassMappings, 
 				DynamicMappings.reverseFieldMappings, 
 				DynamicMappings.reverseMethodMappings);		
+		remapper.resolveMembers(DynamicMappings.getJarClassNames());
 		
 		
 		JarFile jar = mcJar;
@@ -407,50 +891,22 @@ public class DynamicRemap
 		if (jar == null) { System.out.println("Couldn't locate Minecraft jar!"); return; }
 		
 		
-		JarOutputStream outJar = null;
+		JarWriter outJar = null;
 		try {
-			outJar = new JarOutputStream(new FileOutputStream(outputFile));
+			outJar = new JarWriter(new FileOutputStream(outputFile), jar.size(), new File(jar.getName()).length());
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 		
-		for (Enumeration<JarEntry> enumerator = jar.entries(); enumerator.hasMoreElements();)
-		{
-			JarEntry entry = enumerator.nextElement();
-			String name = entry.getName();
-			byte[] bytes = null;
-			
-			if (name.startsWith("META-INF/")) {
-				if (name.endsWith(".RSA") || name.endsWith(".SF")) continue;
-			}
-			
-			if (name.endsWith(".class")) {
-				name = name.substring(0, name.length() - 6);			
-				ClassNode mapped = remapper.remapClass(name);
-				
-				// Correct the source filename
-				if (mapped.sourceFile != null && mapped.sourceFile.equals("SourceFile")) {
-					String sourceName = mapped.name;
-					if (sourceName.indexOf('$') >= 0)
-						sourceName = sourceName.substring(0, sourceName.indexOf('$'));					
-					mapped.sourceFile = sourceName + ".java";
-				}				
-				
-				accessUtil.transformDeobfuscatedClass(mapped);
-				ClassWriter writer = new ClassWriter(0);
-				mapped.accept(writer);
-				name = mapped.name + ".class";
-				bytes = writer.toByteArray();
-			}
-			else bytes = getFileFromZip(entry, jar);
-			
-			ZipEntry ze = new ZipEntry(name);
-			try {
-				outJar.putNextEntry(ze);				
-				outJar.write(bytes);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+		boolean written = false;
+		try {
+			if (parallelRemap) writeRemappedJarParallel(jar, outJar, remapper, accessUtil, Math.max(1, remapThreads));
+			else writeRemappedJar(jar, outJar, remapper, accessUtil);
+			written = true;
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
 		}
 		
 		try {
@@ -460,6 +916,14 @@ public class DynamicRemap
 			e.printStackTrace();
 		}
 		
+		if (!written) {
+			System.out.println("[DynamicRemap] Remapping failed, deleting incomplete " + outputFile.getPath());
+			outputFile.delete();
+		}
+		
+		DynamicMappings.log(true, null, "[DynamicRemap] " + DynamicMappings.classNodeCache);
+		DynamicMappings.log(true, null, "[DynamicRemap] " + DynamicMappings.skeletonNodeCache);
+		
 		
 		
 		
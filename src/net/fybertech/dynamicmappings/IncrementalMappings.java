@@ -0,0 +1,559 @@
+package net.fybertech.dynamicmappings;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Reuses the results of mappers from a previous jar when nothing they
+ * looked at has changed.
+ *
+ * While a mapper runs, every jar class it reads and every mapping it looks
+ * up or adds is recorded against it.  These records are saved along with
+ * the fingerprints of the jar (see ClassFingerprints).  On the next jar,
+ * the old classes are matched up with the new ones, and a mapper is skipped
+ * if every class it read is unchanged apart from renames, every class it
+ * looked for that wasn't in the jar still isn't, and every mapping it looked
+ * up has the same value, renamed.  Its recorded mappings are then
+ * added again, renamed to the new jar's class names.
+ *
+ * Mappers that do have to run again may still produce the same mappings,
+ * in which case anything depending on them can be reused.  Mappers that
+ * search the whole jar are always run.
+ *
+ * Only classes and mappings read through DynamicMappings are seen, so
+ * mappers shouldn't keep state between each other.  Changing any mappings
+ * class discards all records.
+ */
+public class IncrementalMappings
+{
+	private static final int MAGIC = 0x444D4931; // "DMI1"
+	private static final int FORMAT_VERSION = 2;
+
+	static final int CLASS = 0;
+	static final int FIELD = 1;
+	static final int METHOD = 2;
+	static final int REVERSE_CLASS = 3;
+	static final int REVERSE_FIELD = 4;
+	static final int REVERSE_METHOD = 5;
+
+
+	/**
+	 * Everything a mapper read and added on one run.
+	 */
+	static class MapperRecord
+	{
+		/** Classes the mapper read, including the ancestors of classes it checked the hierarchy of */
+		final Set<String> classes = new HashSet<String>();
+		/** Classes the mapper read that weren't in the jar */
+		final Set<String> missing = new HashSet<String>();
+		/** Set if the mapper searched the whole jar */
+		boolean wholeJar = false;
+		/** Mapping type -> mappings looked up and their values, null if they were missing */
+		final List<Map<String, String>> reads = new ArrayList<Map<String, String>>();
+		/** Mapping type -> mappings added, in order, for CLASS, FIELD and METHOD */
+		final List<Map<String, String>> writes = new ArrayList<Map<String, String>>();
+
+		MapperRecord()
+		{
+			for (int type = CLASS; type <= REVERSE_METHOD; type++) reads.add(new HashMap<String, String>());
+			for (int type = CLASS; type <= METHOD; type++) writes.add(new LinkedHashMap<String, String>());
+		}
+	}
+
+
+	/** Record of the mapper running on the current thread, if any */
+	private static final ThreadLocal<MapperRecord> current = new ThreadLocal<MapperRecord>();
+
+	private final byte[] key;
+	private final ClassFingerprints fingerprints;
+	private final ClassFingerprints oldFingerprints;
+	private final Map<String, MapperRecord> previous;
+	/** Old class name -> new class name */
+	private final Map<String, String> renames;
+	private final Map<String, Boolean> unchanged = new ConcurrentHashMap<String, Boolean>();
+
+	/** Records for the current jar, to be saved */
+	private final Map<String, MapperRecord> records = new ConcurrentHashMap<String, MapperRecord>();
+
+	private final AtomicInteger reusedCount = new AtomicInteger();
+	private final AtomicInteger runCount = new AtomicInteger();
+
+
+	private IncrementalMappings(byte[] key, ClassFingerprints fingerprints, ClassFingerprints oldFingerprints, Map<String, MapperRecord> previous)
+	{
+		this.key = key;
+		this.fingerprints = fingerprints;
+		this.oldFingerprints = oldFingerprints;
+		this.previous = previous;
+		this.renames = oldFingerprints != null ? fingerprints.matchFrom(oldFingerprints) : Collections.<String, String>emptyMap();
+	}
+
+
+	/**
+	 * Fingerprints the current jar and loads the records from the previous
+	 * one.  If the file is missing or was written by different mappings
+	 * classes, every mapper will run and be recorded.
+	 *
+	 * @param file - The records saved from the previous jar.
+	 * @param mappingsClasses - Names of the mappings classes that will be run.
+	 */
+	public static IncrementalMappings load(File file, List<String> mappingsClasses)
+	{
+		byte[] key = MappingsCache.computeMapperKey(mappingsClasses);
+		ClassFingerprints fingerprints = ClassFingerprints.build(DynamicMappings.getJarClassNames(), DynamicMappings.mappingThreads);
+
+		ClassFingerprints oldFingerprints = null;
+		Map<String, MapperRecord> previous = new HashMap<String, MapperRecord>();
+		if (key == null || file == null || !file.exists()) return new IncrementalMappings(key, fingerprints, null, previous);
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+			if (in.readInt() == MAGIC && in.readInt() == FORMAT_VERSION) {
+				byte[] savedKey = new byte[in.readUnsignedByte()];
+				in.readFully(savedKey);
+
+				if (Arrays.equals(key, savedKey)) {
+					oldFingerprints = ClassFingerprints.read(in);
+					int count = in.readInt();
+					for (int n = 0; n < count; n++) {
+						String mapper = in.readUTF();
+						previous.put(mapper, readRecord(in));
+					}
+				}
+			}
+		}
+		catch (IOException e) {
+			System.out.println("[DynamicMappings] Couldn't read incremental mappings: " + e.getMessage());
+			oldFingerprints = null;
+			previous.clear();
+		}
+		finally {
+			if (in != null) try { in.close(); } catch (IOException e) {}
+		}
+
+		return new IncrementalMappings(key, fingerprints, oldFingerprints, previous);
+	}
+
+
+	/**
+	 * Writes the records of every mapper run or reused on this jar.
+	 *
+	 * @return True if the file was written.
+	 */
+	public boolean save(File file)
+	{
+		if (key == null || file == null) return false;
+
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null) parent.mkdirs();
+
+		// Write to a temporary file first so a crash can't leave a partial file behind
+		File tempFile = new File(file.getPath() + ".tmp");
+
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeByte(key.length);
+			out.write(key);
+
+			fingerprints.write(out);
+
+			Map<String, MapperRecord> copy = new HashMap<String, MapperRecord>(records);
+			out.writeInt(copy.size());
+			for (Map.Entry<String, MapperRecord> entry : copy.entrySet()) {
+				out.writeUTF(entry.getKey());
+				writeRecord(out, entry.getValue());
+			}
+
+			out.close();
+			out = null;
+		}
+		catch (IOException e) {
+			System.out.println("[DynamicMappings] Couldn't write incremental mappings: " + e.getMessage());
+			tempFile.delete();
+			return false;
+		}
+		finally {
+			if (out != null) try { out.close(); } catch (IOException e) {}
+		}
+
+		file.delete();
+		return tempFile.renameTo(file);
+	}
+
+
+	private static void writeRecord(DataOutputStream out, MapperRecord record) throws IOException
+	{
+		out.writeBoolean(record.wholeJar);
+		out.writeInt(record.classes.size());
+		for (String s : record.classes) out.writeUTF(s);
+		out.writeInt(record.missing.size());
+		for (String s : record.missing) out.writeUTF(s);
+
+		for (Map<String, String> map : record.reads) {
+			out.writeInt(map.size());
+			for (Map.Entry<String, String> entry : map.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeBoolean(entry.getValue() != null);
+				if (entry.getValue() != null) out.writeUTF(entry.getValue());
+			}
+		}
+
+		for (Map<String, String> map : record.writes) {
+			out.writeInt(map.size());
+			for (Map.Entry<String, String> entry : map.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeUTF(entry.getValue());
+			}
+		}
+	}
+
+
+	private static MapperRecord readRecord(DataInputStream in) throws IOException
+	{
+		MapperRecord record = new MapperRecord();
+		record.wholeJar = in.readBoolean();
+
+		int count = in.readInt();
+		for (int n = 0; n < count; n++) record.classes.add(in.readUTF());
+		count = in.readInt();
+		for (int n = 0; n < count; n++) record.missing.add(in.readUTF());
+
+		for (Map<String, String> map : record.reads) {
+			count = in.readInt();
+			for (int n = 0; n < count; n++) {
+				String key = in.readUTF();
+				map.put(key, in.readBoolean() ? in.readUTF() : null);
+			}
+		}
+
+		for (Map<String, String> map : record.writes) {
+			count = in.readInt();
+			for (int n = 0; n < count; n++) {
+				String key = in.readUTF();
+				map.put(key, in.readUTF());
+			}
+		}
+
+		return record;
+	}
+
+
+
+	/**
+	 * Adds the mapper's mappings from the previous jar if nothing it read has
+	 * changed.  Must be called before the mapper would run, once the mappings
+	 * it depends on are present.
+	 *
+	 * @param mapper - Name of the mapper, unique across mappings classes.
+	 * @return True if the mapper's results were reused and it doesn't need to run.
+	 */
+	public boolean reuse(String mapper)
+	{
+		MapperRecord old = previous.get(mapper);
+		if (old == null || old.wholeJar) return false;
+
+		MapperRecord renamed = new MapperRecord();
+
+		for (String className : old.classes) {
+			if (!isUnchanged(className)) return false;
+			renamed.classes.add(renames.get(className));
+		}
+
+		// A class turning up could change what the mapper finds
+		for (String className : old.missing) {
+			if (fingerprints.getId(className) >= 0) return false;
+			renamed.missing.add(className);
+		}
+
+		for (int type = CLASS; type <= REVERSE_METHOD; type++) {
+			boolean reverse = type >= REVERSE_CLASS;
+			int kind = reverse ? type - REVERSE_CLASS : type;
+
+			for (Map.Entry<String, String> entry : old.reads.get(type).entrySet()) {
+				// Reverse lookups are keyed on the obfuscated name instead of the value
+				String key = reverse ? rename(kind, entry.getKey()) : entry.getKey();
+				String expected = entry.getValue();
+				if (!reverse && expected != null) expected = rename(kind, expected);
+				if (key == null || (entry.getValue() != null && expected == null)) return false;
+
+				String actual = lookup(type, key);
+				if (expected == null ? actual != null : !expected.equals(actual)) return false;
+				renamed.reads.get(type).put(key, expected);
+			}
+		}
+
+		for (int type = CLASS; type <= METHOD; type++) {
+			for (Map.Entry<String, String> entry : old.writes.get(type).entrySet()) {
+				String obf = rename(type, entry.getValue());
+				if (obf == null) return false;
+				renamed.writes.get(type).put(entry.getKey(), obf);
+			}
+		}
+
+		for (Map.Entry<String, String> entry : renamed.writes.get(CLASS).entrySet()) DynamicMappings.addClassMapping(entry.getKey(), entry.getValue());
+		for (Map.Entry<String, String> entry : renamed.writes.get(FIELD).entrySet()) DynamicMappings.addFieldMapping(entry.getKey(), entry.getValue());
+		for (Map.Entry<String, String> entry : renamed.writes.get(METHOD).entrySet()) DynamicMappings.addMethodMapping(entry.getKey(), entry.getValue());
+
+		records.put(mapper, renamed);
+		reusedCount.incrementAndGet();
+		return true;
+	}
+
+
+	/**
+	 * Starts recording what the mapper reads and adds on the current thread.
+	 */
+	public void begin()
+	{
+		current.set(new MapperRecord());
+	}
+
+
+	/**
+	 * Stops recording on the current thread.
+	 *
+	 * @param mapper - Name of the mapper, unique across mappings classes.
+	 * @param succeeded - False if the mapper threw, in which case nothing is kept.
+	 */
+	public void end(String mapper, boolean succeeded)
+	{
+		MapperRecord record = current.get();
+		current.remove();
+		runCount.incrementAndGet();
+		if (record == null || !succeeded) return;
+
+		// Only jar classes can change between versions, but anything else has to stay out of the jar
+		for (Iterator<String> it = record.classes.iterator(); it.hasNext();) {
+			String className = it.next();
+			if (fingerprints.getId(className) >= 0) continue;
+			record.missing.add(className);
+			it.remove();
+		}
+
+		records.put(mapper, record);
+	}
+
+
+	public int getReusedCount()
+	{
+		return reusedCount.get();
+	}
+
+
+	public int getRunCount()
+	{
+		return runCount.get();
+	}
+
+
+	/**
+	 * @return True if an old class was matched to a new one with the same
+	 * content, and its references were matched the same way.
+	 */
+	private boolean isUnchanged(String oldName)
+	{
+		Boolean cached = unchanged.get(oldName);
+		if (cached != null) return cached;
+
+		boolean result = false;
+		int oldId = oldFingerprints.getId(oldName);
+		String newName = renames.get(oldName);
+		int newId = newName != null ? fingerprints.getId(newName) : -1;
+
+		if (oldId >= 0 && newId >= 0 && oldFingerprints.getHash(oldId) == fingerprints.getHash(newId))
+		{
+			int[] oldRefs = oldFingerprints.getRefs(oldId);
+			int[] newRefs = fingerprints.getRefs(newId);
+			result = oldRefs.length == newRefs.length;
+
+			for (int n = 0; result && n < oldRefs.length; n++) {
+				result = fingerprints.getName(newRefs[n]).equals(renames.get(oldFingerprints.getName(oldRefs[n])));
+			}
+		}
+
+		unchanged.put(oldName, result);
+		return result;
+	}
+
+
+	/**
+	 * Renames an obfuscated class or member from the previous jar.
+	 *
+	 * @param type - CLASS, FIELD or METHOD.
+	 * @return The new name, or null if a class involved couldn't be matched.
+	 */
+	private String rename(int type, String obf)
+	{
+		if (type == CLASS) return renameClass(obf);
+
+		MemberRef ref = MemberRef.parse(obf);
+		if (ref == null) return null;
+
+		String owner = renameClass(ref.owner);
+		String desc = renameDesc(ref.desc);
+		if (owner == null || desc == null) return null;
+		return owner + " " + ref.name + " " + desc;
+	}
+
+
+	private String renameClass(String className)
+	{
+		if (oldFingerprints.getId(className) < 0) return className;
+		return renames.get(className);
+	}
+
+
+	private String renameDesc(String desc)
+	{
+		StringBuilder output = new StringBuilder(desc.length());
+
+		for (int pos = 0; pos < desc.length(); pos++) {
+			char c = desc.charAt(pos);
+			output.append(c);
+			if (c != 'L') continue;
+
+			int end = desc.indexOf(';', pos);
+			if (end < 0) return null;
+			String className = renameClass(desc.substring(pos + 1, end));
+			if (className == null) return null;
+			output.append(className).append(';');
+			pos = end;
+		}
+
+		return output.toString();
+	}
+
+
+	private static String lookup(int type, String key)
+	{
+		switch (type) {
+			case CLASS: return DynamicMappings.classMappings.get(key);
+			case FIELD: return DynamicMappings.fieldMappings.get(key);
+			case METHOD: return DynamicMappings.methodMappings.get(key);
+			case REVERSE_CLASS: return DynamicMappings.reverseClassMappings.get(key);
+			case REVERSE_FIELD: return DynamicMappings.reverseFieldMappings.get(key);
+			default: return DynamicMappings.reverseMethodMappings.get(key);
+		}
+	}
+
+
+
+	/**
+	 * Notes a jar class being read by the current mapper.
+	 */
+	static void readClass(String className)
+	{
+		MapperRecord record = current.get();
+		if (record != null && className != null) record.classes.add(className.replace(".", "/"));
+	}
+
+
+	/**
+	 * Notes the current mapper checking the ancestors of a class.
+	 */
+	static void readHierarchy(String className)
+	{
+		MapperRecord record = current.get();
+		if (record == null || className == null) return;
+
+		ClassHierarchy hierarchy = DynamicMappings.getClassHierarchy();
+		int id = hierarchy.getId(className);
+		if (id < 0) { record.classes.add(className); return; }
+
+		Set<Integer> seen = new HashSet<Integer>();
+		Deque<Integer> queue = new ArrayDeque<Integer>();
+		queue.add(id);
+
+		while (!queue.isEmpty())
+		{
+			int next = queue.poll();
+			if (!seen.add(next)) continue;
+			record.classes.add(hierarchy.getName(next));
+
+			if (hierarchy.getSuperId(next) >= 0) queue.add(hierarchy.getSuperId(next));
+			for (int iface : hierarchy.getInterfaceIds(next)) queue.add(iface);
+		}
+	}
+
+
+	/**
+	 * Notes the current mapper searching every class in the jar, so it can
+	 * never be reused.
+	 */
+	static void readWholeJar()
+	{
+		MapperRecord record = current.get();
+		if (record != null) record.wholeJar = true;
+	}
+
+
+	/**
+	 * Notes the current mapper looking up a mapping.
+	 *
+	 * @param type - CLASS through REVERSE_METHOD.
+	 * @param key - The mapping looked up, as a String or MemberRef.
+	 * @param value - The mapping's value, as a String or MemberRef, or null.
+	 * @return The value, unchanged.
+	 */
+	static <T> T readMapping(int type, Object key, T value)
+	{
+		MapperRecord record = current.get();
+		if (record == null || key == null) return value;
+
+		String keyString = key.toString();
+
+		// Mappings the mapper added itself aren't inputs
+		if (type <= METHOD && record.writes.get(type).containsKey(keyString)) return value;
+		if (type >= REVERSE_CLASS && record.writes.get(type - REVERSE_CLASS).containsValue(keyString)) return value;
+
+		Map<String, String> reads = record.reads.get(type);
+		if (!reads.containsKey(keyString)) reads.put(keyString, value != null ? value.toString() : null);
+		return value;
+	}
+
+
+	static <T> T readMember(int type, String owner, String name, String desc, T value)
+	{
+		if (current.get() == null || owner == null || name == null || desc == null) return value;
+		return readMapping(type, owner + " " + name + " " + desc, value);
+	}
+
+
+	/**
+	 * Notes the current mapper adding a mapping.
+	 *
+	 * @param type - CLASS, FIELD or METHOD.
+	 */
+	static void wroteMapping(int type, String deobf, String obf)
+	{
+		MapperRecord record = current.get();
+		if (record != null) record.writes.get(type).put(deobf, obf);
+	}
+}
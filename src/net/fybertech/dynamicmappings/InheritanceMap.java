@@ -9,6 +9,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -21,7 +22,8 @@ import org.objectweb.asm.tree.MethodNode;
 public class InheritanceMap
 {
 	//public static List<String> libraries = new ArrayList<String>();
-	public Map<String, InheritanceMap> mapCache = new HashMap<String, InheritanceMap>();
+	// Concurrent so a remapper can be shared by several threads
+	public Map<String, InheritanceMap> mapCache = new ConcurrentHashMap<String, InheritanceMap>();
 	//public static Map<String, ClassNode> classCache = new HashMap<String, ClassNode>();
 	
 	public List<String> privatefields = new ArrayList<String>();
@@ -192,7 +194,8 @@ public class InheritanceMap
 	
 	public ClassNode locateClass(String classname) throws IOException
 	{
-		return DynamicMappings.getClassNode(classname);
+		// Only member names and signatures are needed, so skip the method bodies
+		return DynamicMappings.getClassNodeSkeleton(classname);
 		
 		/*ClassNode jc = InheritanceMap.classCache.get(classname);
 		if (jc != null) return jc;	
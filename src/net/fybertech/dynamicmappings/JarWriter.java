@@ -0,0 +1,303 @@
+package net.fybertech.dynamicmappings;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+
+/**
+ * Minimal jar writer that can copy entries from another jar in their
+ * original compressed form.
+ *
+ * ZipOutputStream always compresses entries itself, so copying a file
+ * through it means inflating and deflating it again.  This writes the
+ * zip structures directly instead, letting unchanged entries be copied
+ * as-is (keeping their CRC and sizes) while new data is still deflated
+ * as normal.
+ *
+ * Zip64 isn't supported when writing directly, so that's limited to 65535
+ * entries and 4GB.  Output that might not fit goes through a JarOutputStream
+ * instead, which handles zip64 but has to compress copied entries again.
+ */
+public class JarWriter implements Closeable
+{
+	private static final int LOCAL_HEADER_SIG = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+	private static final int END_HEADER_SIG = 0x06054b50;
+
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+	private static final int VERSION = 20;
+	private static final int FLAG_UTF8 = 0x800;
+
+	private static final int MAX_ENTRIES = 0xFFFF;
+	private static final long MAX_SIZE = 0xFFFFFFFFL;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+	private static class CentralEntry
+	{
+		byte[] name;
+		int flags;
+		int method;
+		int dosTime;
+		long crc;
+		long compressedSize;
+		long size;
+		long headerOffset;
+	}
+
+
+	private final OutputStream out;
+	/** Used instead of writing directly when the output could be too large, otherwise null */
+	private final JarOutputStream jarOut;
+	private long written = 0;
+	private final List<CentralEntry> entries = new ArrayList<CentralEntry>();
+	private final Set<String> names = new HashSet<String>();
+	private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+	private boolean closed = false;
+
+
+	public JarWriter(OutputStream out)
+	{
+		this.out = new BufferedOutputStream(out, 65536);
+		this.jarOut = null;
+	}
+
+
+	/**
+	 * Picks how to write the jar based on the size of its input, falling
+	 * back to a JarOutputStream if the output could go over the limits of a
+	 * non-zip64 jar.  Remapping can grow classes a little, so anything past
+	 * half the size limit counts.
+	 *
+	 * @param entryCount - Total number of entries in the input jars.
+	 * @param inputSize - Total size of the input jars in bytes.
+	 */
+	public JarWriter(OutputStream out, int entryCount, long inputSize) throws IOException
+	{
+		this.out = new BufferedOutputStream(out, 65536);
+		this.jarOut = entryCount >= MAX_ENTRIES || inputSize > MAX_SIZE / 2 ? new JarOutputStream(this.out) : null;
+	}
+
+
+	/**
+	 * Compresses and writes a new entry.
+	 */
+	public synchronized void writeEntry(String name, byte[] data) throws IOException
+	{
+		if (jarOut != null) { writeJarEntry(name, data, System.currentTimeMillis()); return; }
+
+		CRC32 crc = new CRC32();
+		crc.update(data);
+
+		deflater.reset();
+		deflater.setInput(data);
+		deflater.finish();
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+		byte[] buffer = new byte[8192];
+		while (!deflater.finished()) {
+			int count = deflater.deflate(buffer);
+			compressed.write(buffer, 0, count);
+		}
+
+		// Some data doesn't compress at all, so store it as is
+		if (compressed.size() >= data.length) writeData(name, STORED, toDosTime(System.currentTimeMillis()), crc.getValue(), data.length, data);
+		else writeData(name, DEFLATED, toDosTime(System.currentTimeMillis()), crc.getValue(), data.length, compressed.toByteArray());
+	}
+
+
+	/**
+	 * Copies an entry from another jar without decompressing it.
+	 */
+	public void copyEntry(MappedJarClassSource source, MappedJarClassSource.Entry entry) throws IOException
+	{
+		copyEntry(source, entry, entry.name);
+	}
+
+
+	/**
+	 * Copies an entry from another jar without decompressing it, under a
+	 * different name.
+	 */
+	public void copyEntry(MappedJarClassSource source, MappedJarClassSource.Entry entry, String name) throws IOException
+	{
+		if (jarOut != null) {
+			byte[] data = source.getBytes(entry);
+			if (data == null) throw new ZipException("Couldn't read " + entry.name + " from " + source.file);
+			synchronized (this) {
+				writeJarEntry(name, data, fromDosTime(entry.dosTime));
+			}
+			return;
+		}
+
+		byte[] raw = source.getRawBytes(entry);
+		if (raw == null) throw new ZipException("Couldn't read " + entry.name + " from " + source.file);
+
+		synchronized (this) {
+			writeData(name, entry.method, entry.dosTime, entry.crc, entry.size, raw);
+		}
+	}
+
+
+	private void writeData(String name, int method, int dosTime, long crc, long size, byte[] data) throws IOException
+	{
+		if (closed) throw new IOException("Jar already closed");
+		if (!names.add(name)) throw new ZipException("duplicate entry: " + name);
+		if (entries.size() >= MAX_ENTRIES) throw new ZipException("Too many entries for a non-zip64 jar");
+
+		CentralEntry entry = new CentralEntry();
+		entry.name = name.getBytes(UTF8);
+		entry.flags = isAscii(name) ? 0 : FLAG_UTF8;
+		entry.method = method;
+		entry.dosTime = dosTime;
+		entry.crc = crc;
+		entry.compressedSize = data.length;
+		entry.size = size;
+		entry.headerOffset = written;
+		if (written + data.length > MAX_SIZE) throw new ZipException("Jar too large for a non-zip64 jar");
+
+		writeInt(LOCAL_HEADER_SIG);
+		writeShort(VERSION);
+		writeShort(entry.flags);
+		writeShort(method);
+		writeInt(dosTime);
+		writeInt((int)crc);
+		writeInt((int)entry.compressedSize);
+		writeInt((int)size);
+		writeShort(entry.name.length);
+		writeShort(0);
+		write(entry.name);
+		write(data);
+
+		entries.add(entry);
+	}
+
+
+	private void writeJarEntry(String name, byte[] data, long time) throws IOException
+	{
+		if (closed) throw new IOException("Jar already closed");
+
+		JarEntry entry = new JarEntry(name);
+		entry.setTime(time);
+		jarOut.putNextEntry(entry);
+		jarOut.write(data);
+		jarOut.closeEntry();
+	}
+
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		if (closed) return;
+
+		if (jarOut != null) {
+			closed = true;
+			deflater.end();
+			jarOut.close();
+			return;
+		}
+
+		long dirOffset = written;
+		for (CentralEntry entry : entries) {
+			writeInt(CENTRAL_HEADER_SIG);
+			writeShort(VERSION);
+			writeShort(VERSION);
+			writeShort(entry.flags);
+			writeShort(entry.method);
+			writeInt(entry.dosTime);
+			writeInt((int)entry.crc);
+			writeInt((int)entry.compressedSize);
+			writeInt((int)entry.size);
+			writeShort(entry.name.length);
+			writeShort(0); // Extra length
+			writeShort(0); // Comment length
+			writeShort(0); // Disk number
+			writeShort(0); // Internal attributes
+			writeInt(0);   // External attributes
+			writeInt((int)entry.headerOffset);
+			write(entry.name);
+		}
+		long dirSize = written - dirOffset;
+
+		writeInt(END_HEADER_SIG);
+		writeShort(0);
+		writeShort(0);
+		writeShort(entries.size());
+		writeShort(entries.size());
+		writeInt((int)dirSize);
+		writeInt((int)dirOffset);
+		writeShort(0);
+
+		closed = true;
+		deflater.end();
+		out.close();
+	}
+
+
+	private static boolean isAscii(String s)
+	{
+		for (int n = 0; n < s.length(); n++) {
+			if (s.charAt(n) > 0x7F) return false;
+		}
+		return true;
+	}
+
+
+	private static int toDosTime(long time)
+	{
+		Calendar c = Calendar.getInstance();
+		c.setTimeInMillis(time);
+		int year = c.get(Calendar.YEAR);
+		if (year < 1980) return (1 << 21) | (1 << 16);
+		return (year - 1980) << 25 | (c.get(Calendar.MONTH) + 1) << 21 | c.get(Calendar.DAY_OF_MONTH) << 16
+				| c.get(Calendar.HOUR_OF_DAY) << 11 | c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) >> 1;
+	}
+
+
+	private static long fromDosTime(int dosTime)
+	{
+		Calendar c = Calendar.getInstance();
+		c.clear();
+		c.set(((dosTime >> 25) & 0x7F) + 1980, ((dosTime >> 21) & 0x0F) - 1, (dosTime >> 16) & 0x1F,
+				(dosTime >> 11) & 0x1F, (dosTime >> 5) & 0x3F, (dosTime << 1) & 0x3E);
+		return c.getTimeInMillis();
+	}
+
+
+	private void writeShort(int value) throws IOException
+	{
+		out.write(value & 0xFF);
+		out.write((value >>> 8) & 0xFF);
+		written += 2;
+	}
+
+
+	private void writeInt(int value) throws IOException
+	{
+		writeShort(value & 0xFFFF);
+		writeShort((value >>> 16) & 0xFFFF);
+	}
+
+
+	private void write(byte[] data) throws IOException
+	{
+		out.write(data);
+		written += data.length;
+	}
+}
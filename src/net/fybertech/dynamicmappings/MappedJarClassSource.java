@@ -0,0 +1,265 @@
+package net.fybertech.dynamicmappings;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+
+/**
+ * Reads classes straight out of a memory-mapped jar.
+ *
+ * The central directory is parsed once into a table of entry offsets, so
+ * loading a class is a hash lookup followed by a copy (or inflate) of its
+ * data, without going through a classloader's URL handling and streams.
+ *
+ * Zip64 jars aren't supported, build() returns null for those.
+ */
+public class MappedJarClassSource implements ClassSource
+{
+	private static final int LOCAL_HEADER_SIG = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+	private static final int END_HEADER_SIG = 0x06054b50;
+
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+	/**
+	 * Location of a single jar entry.
+	 */
+	public static class Entry
+	{
+		public final String name;
+		public final int method;
+		/** DOS format modification date (high 16 bits) and time (low 16 bits) */
+		public final int dosTime;
+		public final long crc;
+		public final int compressedSize;
+		public final int size;
+		/** Offset of the entry's local file header */
+		public final int headerOffset;
+
+		Entry(String name, int method, int dosTime, long crc, int compressedSize, int size, int headerOffset)
+		{
+			this.name = name;
+			this.method = method;
+			this.dosTime = dosTime;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.headerOffset = headerOffset;
+		}
+	}
+
+
+	public final File file;
+	private final MappedByteBuffer buffer;
+
+	/** Entry name -> entry, in central directory order */
+	private final Map<String, Entry> entries;
+	private final List<String> classNames;
+
+
+	private MappedJarClassSource(File file, MappedByteBuffer buffer, Map<String, Entry> entries, List<String> classNames)
+	{
+		this.file = file;
+		this.buffer = buffer;
+		this.entries = entries;
+		this.classNames = classNames;
+	}
+
+
+	/**
+	 * Maps the jar and reads its central directory.
+	 *
+	 * @param file - The jar to read.
+	 * @return The class source, or null if the jar couldn't be read.
+	 */
+	public static MappedJarClassSource build(File file)
+	{
+		if (file == null || !file.isFile()) return null;
+
+		MappedByteBuffer buffer = null;
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) return null;
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException e) {
+			return null;
+		} finally {
+			// The mapping stays valid after the file is closed
+			if (raf != null) try { raf.close(); } catch (IOException e) {}
+		}
+
+		ByteBuffer buf = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+		int end = findEndHeader(buf);
+		if (end < 0) return null;
+
+		long dirSize = buf.getInt(end + 12) & 0xFFFFFFFFL;
+		long dirOffset = buf.getInt(end + 16) & 0xFFFFFFFFL;
+		if (dirOffset == 0xFFFFFFFFL || dirOffset + dirSize > buf.limit()) return null;
+
+		Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+		List<String> classNames = new ArrayList<String>();
+
+		int pos = (int)dirOffset;
+		int dirEnd = (int)(dirOffset + dirSize);
+		byte[] nameBytes = new byte[256];
+
+		while (pos + 46 <= dirEnd && buf.getInt(pos) == CENTRAL_HEADER_SIG)
+		{
+			int method = buf.getShort(pos + 10) & 0xFFFF;
+			int dosTime = buf.getInt(pos + 12);
+			long crc = buf.getInt(pos + 16) & 0xFFFFFFFFL;
+			long compressedSize = buf.getInt(pos + 20) & 0xFFFFFFFFL;
+			long size = buf.getInt(pos + 24) & 0xFFFFFFFFL;
+			int nameLength = buf.getShort(pos + 28) & 0xFFFF;
+			int extraLength = buf.getShort(pos + 30) & 0xFFFF;
+			int commentLength = buf.getShort(pos + 32) & 0xFFFF;
+			long headerOffset = buf.getInt(pos + 42) & 0xFFFFFFFFL;
+
+			if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || headerOffset == 0xFFFFFFFFL) return null;
+			if (compressedSize > Integer.MAX_VALUE || size > Integer.MAX_VALUE || headerOffset >= buf.limit()) return null;
+			if (pos + 46 + nameLength > dirEnd) return null;
+
+			if (nameBytes.length < nameLength) nameBytes = new byte[nameLength];
+			buf.position(pos + 46);
+			buf.get(nameBytes, 0, nameLength);
+			String name = new String(nameBytes, 0, nameLength, UTF8);
+
+			entries.put(name, new Entry(name, method, dosTime, crc, (int)compressedSize, (int)size, (int)headerOffset));
+			if (name.endsWith(".class")) classNames.add(name.substring(0, name.length() - 6));
+
+			pos += 46 + nameLength + extraLength + commentLength;
+		}
+
+		return new MappedJarClassSource(file, buffer, entries, Collections.unmodifiableList(classNames));
+	}
+
+
+	private static int findEndHeader(ByteBuffer buf)
+	{
+		// The end header is at least 22 bytes, followed by a comment of up to 64k
+		int minPos = Math.max(0, buf.limit() - 22 - 0xFFFF);
+		for (int pos = buf.limit() - 22; pos >= minPos; pos--) {
+			if (buf.getInt(pos) == END_HEADER_SIG) return pos;
+		}
+		return -1;
+	}
+
+
+	public Entry getEntry(String name)
+	{
+		return entries.get(name);
+	}
+
+
+	/**
+	 * @return Entry names in central directory order.
+	 */
+	public Iterable<String> getEntryNames()
+	{
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+
+
+	/**
+	 * Gets the stored (possibly compressed) data of an entry, as it appears
+	 * in the jar.
+	 */
+	public byte[] getRawBytes(Entry entry)
+	{
+		if (entry == null) return null;
+
+		// The offsets come from the jar, so a truncated or corrupt one could point anywhere
+		ByteBuffer buf = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int pos = entry.headerOffset;
+		if (pos < 0 || pos + 30L > buf.capacity()) return null;
+		if (buf.getInt(pos) != LOCAL_HEADER_SIG) return null;
+
+		int nameLength = buf.getShort(pos + 26) & 0xFFFF;
+		int extraLength = buf.getShort(pos + 28) & 0xFFFF;
+
+		long dataStart = pos + 30L + nameLength + extraLength;
+		if (entry.compressedSize < 0 || dataStart + entry.compressedSize > buf.capacity()) return null;
+
+		byte[] data = new byte[entry.compressedSize];
+		buf.position((int)dataStart);
+		buf.get(data);
+		return data;
+	}
+
+
+	/**
+	 * Gets the uncompressed data of an entry.
+	 */
+	public byte[] getBytes(Entry entry)
+	{
+		byte[] raw = getRawBytes(entry);
+		if (raw == null) return null;
+
+		if (entry.method == STORED) return raw;
+		if (entry.method != DEFLATED || entry.size < 0) return null;
+
+		byte[] output = new byte[entry.size];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(raw);
+			int pos = 0;
+			boolean padded = false;
+			while (pos < output.length) {
+				int read = inflater.inflate(output, pos, output.length - pos);
+				pos += read;
+				if (read > 0) continue;
+
+				// Raw inflate can want one extra byte of input before it finishes
+				if (inflater.needsInput() && !padded) { inflater.setInput(new byte[1]); padded = true; }
+				else break;
+			}
+			if (pos != output.length) return null;
+		} catch (DataFormatException e) {
+			return null;
+		} finally {
+			inflater.end();
+		}
+
+		return output;
+	}
+
+
+	public byte[] getBytes(String name)
+	{
+		return getBytes(entries.get(name));
+	}
+
+
+	@Override
+	public byte[] getClassBytes(String className)
+	{
+		return getBytes(entries.get(className + ".class"));
+	}
+
+
+	@Override
+	public Iterable<String> getClassNames()
+	{
+		return classNames;
+	}
+}
@@ -0,0 +1,441 @@
+package net.fybertech.dynamicmappings;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Runs @Mapping methods in dependency order.
+ *
+ * The dependency graph is built once from each mapper's depends/provides
+ * annotations.  Every mapper keeps a counter of the mappings it's still
+ * waiting on, and is queued to run as soon as that counter hits zero,
+ * rather than rescanning every remaining mapper after each pass.
+ *
+ * Mappers from multiple mappings classes can share one graph, letting any
+ * mapper depend on mappings provided by another class.
+ *
+ * If given a ForkJoinPool, mappers with no ordering between them are run
+ * concurrently, with newly ready mappers forked from whichever worker
+ * provided their last dependency.  Each mapper then gets its own ClassNodes,
+ * since ASM updates nodes lazily even while they're only being read.
+ */
+public class MappingScheduler
+{
+	/**
+	 * Stores relevant information about a mapper method in one structure.
+	 */
+	static class MappingMethod
+	{
+		final Class<?> mappingsClass;
+		final Method method;
+		final Object mappingsObject;
+		final boolean clientSide;
+		final boolean serverSide;
+
+		final String[] provides;
+		final String[] depends;
+
+		final String[] providesMethods;
+		final String[] dependsMethods;
+
+		final String[] providesFields;
+		final String[] dependsFields;
+
+		/** Number of dependencies not yet present in the mapping tables */
+		final AtomicInteger pending = new AtomicInteger();
+		volatile boolean finished = false;
+
+		public MappingMethod(Class<?> owner, Method m, Mapping mapping, Object instance, boolean client, boolean server)
+		{
+			mappingsClass = owner;
+			method = m;
+			mappingsObject = instance;
+			clientSide = client;
+			serverSide = server;
+			provides = mapping.provides();
+			depends = mapping.depends();
+			providesMethods = mapping.providesMethods();
+			dependsMethods = mapping.dependsMethods();
+			providesFields = mapping.providesFields();
+			dependsFields = mapping.dependsFields();
+		}
+	}
+
+
+	private final String name;
+	private final List<MappingMethod> mappingMethods = new ArrayList<MappingMethod>();
+
+	/** Mapping name -> mappers waiting for it */
+	private final Map<String, List<MappingMethod>> classDependents = new ConcurrentHashMap<String, List<MappingMethod>>();
+	private final Map<String, List<MappingMethod>> fieldDependents = new ConcurrentHashMap<String, List<MappingMethod>>();
+	private final Map<String, List<MappingMethod>> methodDependents = new ConcurrentHashMap<String, List<MappingMethod>>();
+
+	/** Mappers ready to run, only used when running serially */
+	private final Deque<MappingMethod> ready = new ArrayDeque<MappingMethod>();
+	private final AtomicInteger remaining = new AtomicInteger();
+	/** Set if any mapper threw */
+	private volatile boolean failed = false;
+
+	private ForkJoinPool pool = null;
+	/** Number of mapper tasks submitted to the pool that haven't finished */
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final Object quiescenceLock = new Object();
+
+	/** Reuses mapper results from a previous jar, if set */
+	private IncrementalMappings incremental = null;
+
+
+	/**
+	 * @param name - Used when reporting unmet dependencies.
+	 */
+	public MappingScheduler(String name)
+	{
+		this.name = name;
+	}
+
+
+	/**
+	 * Adds a mapper method to the graph.  Mappers from any number of classes
+	 * may be added before running, and are scheduled together.
+	 *
+	 * @param mappingsClass - The class the mapper was registered from.
+	 * @param method - The @Mapping annotated method.
+	 * @param mappingsObject - Instance to invoke non-static mappers on.
+	 * @param clientSide - True if the mapper is only for the client.
+	 * @param serverSide - True if the mapper is only for the server.
+	 */
+	public void addMapper(Class<?> mappingsClass, Method method, Object mappingsObject, boolean clientSide, boolean serverSide)
+	{
+		Mapping mapping = method.getAnnotation(Mapping.class);
+		if (mapping == null) return;
+		mappingMethods.add(new MappingMethod(mappingsClass, method, mapping, mappingsObject, clientSide, serverSide));
+	}
+
+
+	public int size()
+	{
+		return mappingMethods.size();
+	}
+
+
+	/**
+	 * @param incremental - Records every mapper run and skips any whose
+	 * results from a previous jar can be reused, or null to always run them.
+	 */
+	public void setIncremental(IncrementalMappings incremental)
+	{
+		this.incremental = incremental;
+	}
+
+
+	/**
+	 * Runs every mapper whose dependencies can be satisfied.
+	 *
+	 * @return True if every mapper was run without throwing, false if any
+	 * threw or were left waiting on dependencies that were never provided.
+	 */
+	public boolean run()
+	{
+		return run(null);
+	}
+
+
+	/**
+	 * Runs every mapper whose dependencies can be satisfied.
+	 *
+	 * @param pool - Pool to run independent mappers on concurrently, or null
+	 * to run them one at a time on the calling thread.
+	 * @return True if every mapper was run without throwing, false if any
+	 * threw or were left waiting on dependencies that were never provided.
+	 */
+	public boolean run(ForkJoinPool pool)
+	{
+		this.pool = pool;
+		remaining.set(mappingMethods.size());
+
+		List<MappingMethod> initial = buildGraph();
+
+		while (true)
+		{
+			for (MappingMethod mm : initial) schedule(mm);
+			initial.clear();
+			drain();
+
+			if (remaining.get() == 0) return !failed;
+
+			// Mappers occasionally add mappings they don't declare, so give
+			// anything still waiting one more look before giving up.
+			if (!releasePresent()) break;
+		}
+
+		reportUnmet();
+		return false;
+	}
+
+
+	private void schedule(MappingMethod mm)
+	{
+		if (pool == null) { ready.add(mm); return; }
+
+		inFlight.incrementAndGet();
+		pool.execute(new MapperTask(mm));
+	}
+
+
+	/**
+	 * Runs scheduled mappers until nothing is left ready to run.
+	 */
+	private void drain()
+	{
+		if (pool == null) {
+			while (!ready.isEmpty()) runAndRelease(ready.poll());
+			return;
+		}
+
+		synchronized (quiescenceLock) {
+			while (inFlight.get() > 0) {
+				try {
+					quiescenceLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+
+	private void runAndRelease(MappingMethod mm)
+	{
+		runMapper(mm);
+		mm.finished = true;
+		remaining.decrementAndGet();
+		releaseProvided(mm);
+	}
+
+
+	private class MapperTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		final MappingMethod mm;
+
+		MapperTask(MappingMethod mm)
+		{
+			this.mm = mm;
+		}
+
+		@Override
+		protected void compute()
+		{
+			try {
+				runAndRelease(mm);
+			}
+			finally {
+				// Children are counted before we get here, so zero means nothing is left
+				if (inFlight.decrementAndGet() == 0) {
+					synchronized (quiescenceLock) { quiescenceLock.notifyAll(); }
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * @return The mappers with no unmet dependencies.
+	 */
+	private List<MappingMethod> buildGraph()
+	{
+		List<MappingMethod> initial = new ArrayList<MappingMethod>();
+
+		for (MappingMethod mm : mappingMethods)
+		{
+			addDependencies(mm, mm.depends, DynamicMappings.classMappings, classDependents);
+			addDependencies(mm, mm.dependsFields, DynamicMappings.fieldMappings, fieldDependents);
+			addDependencies(mm, mm.dependsMethods, DynamicMappings.methodMappings, methodDependents);
+			if (mm.pending.get() == 0) initial.add(mm);
+		}
+
+		return initial;
+	}
+
+
+	private static void addDependencies(MappingMethod mm, String[] depends, Map<String, String> present, Map<String, List<MappingMethod>> dependents)
+	{
+		// Ignore duplicate entries so each one only counts once
+		Set<String> unique = new LinkedHashSet<String>(Arrays.asList(depends));
+
+		for (String depend : unique) {
+			if (present.containsKey(depend)) continue;
+
+			List<MappingMethod> waiting = dependents.get(depend);
+			if (waiting == null) { waiting = new ArrayList<MappingMethod>(); dependents.put(depend, waiting); }
+			waiting.add(mm);
+			mm.pending.incrementAndGet();
+		}
+	}
+
+
+	private void releaseProvided(MappingMethod mm)
+	{
+		for (String s : mm.provides) {
+			if (DynamicMappings.classMappings.containsKey(s)) release(s, classDependents);
+		}
+		for (String s : mm.providesFields) {
+			if (DynamicMappings.fieldMappings.containsKey(s)) release(s, fieldDependents);
+		}
+		for (String s : mm.providesMethods) {
+			if (DynamicMappings.methodMappings.containsKey(s)) release(s, methodDependents);
+		}
+	}
+
+
+	/**
+	 * @return True if any mapper became ready to run.
+	 */
+	private boolean release(String key, Map<String, List<MappingMethod>> dependents)
+	{
+		// Only one caller gets the list back, so each waiter is counted down once
+		List<MappingMethod> waiting = dependents.remove(key);
+		if (waiting == null) return false;
+
+		boolean released = false;
+		for (MappingMethod mm : waiting) {
+			if (mm.pending.decrementAndGet() == 0) { schedule(mm); released = true; }
+		}
+		return released;
+	}
+
+
+	/**
+	 * Releases any waited-on mappings that showed up without being declared.
+	 *
+	 * @return True if any mapper became ready to run.
+	 */
+	private boolean releasePresent()
+	{
+		boolean released = false;
+		released |= releasePresent(DynamicMappings.classMappings, classDependents);
+		released |= releasePresent(DynamicMappings.fieldMappings, fieldDependents);
+		released |= releasePresent(DynamicMappings.methodMappings, methodDependents);
+		return released;
+	}
+
+
+	private boolean releasePresent(Map<String, String> present, Map<String, List<MappingMethod>> dependents)
+	{
+		List<String> found = new ArrayList<String>();
+		for (String key : dependents.keySet()) {
+			if (present.containsKey(key)) found.add(key);
+		}
+
+		boolean released = false;
+		for (String key : found) released |= release(key, dependents);
+		return released;
+	}
+
+
+	/**
+	 * Adds every mapping the mapper actually found to a side's set.
+	 */
+	private static void addProvided(MappingMethod mm, Set<String> sideSet)
+	{
+		for (String s : mm.provides) if (DynamicMappings.classMappings.containsKey(s)) sideSet.add(s);
+		for (String s : mm.providesFields) if (DynamicMappings.fieldMappings.containsKey(s)) sideSet.add(s);
+		for (String s : mm.providesMethods) if (DynamicMappings.methodMappings.containsKey(s)) sideSet.add(s);
+	}
+	
+	
+	private void runMapper(MappingMethod mm)
+	{
+		if (!DynamicMappings.simulatedMappings) {
+			String mapper = mm.mappingsClass.getName() + "." + mm.method.getName();
+			if (incremental == null || !incremental.reuse(mapper)) {
+				boolean succeeded = false;
+				if (incremental != null) incremental.begin();
+				if (pool != null) DynamicMappings.beginPrivateNodes();
+				try {
+					if (Modifier.isStatic(mm.method.getModifiers())) mm.method.invoke(null);
+					else mm.method.invoke(mm.mappingsObject, (Object[])null);
+					succeeded = true;
+				} catch (Exception e) {
+					e.printStackTrace();
+					failed = true;
+				} finally {
+					if (pool != null) DynamicMappings.endPrivateNodes();
+					if (incremental != null) incremental.end(mapper, succeeded);
+				}
+			}
+			
+			// Recorded so exporters can mark side specific mappings
+			if (mm.clientSide) addProvided(mm, DynamicMappings.clientMappingsSet);
+			if (mm.serverSide) addProvided(mm, DynamicMappings.serverMappingsSet);
+		}
+		else {
+			for (String s : mm.provides) {
+				DynamicMappings.classMappings.put(s, "---");
+				if (mm.clientSide) DynamicMappings.clientMappingsSet.add(s);
+				if (mm.serverSide) DynamicMappings.serverMappingsSet.add(s);
+			}
+			for (String s : mm.providesFields) {
+				DynamicMappings.fieldMappings.put(s, "--- --- ---");
+				if (mm.clientSide) DynamicMappings.clientMappingsSet.add(s);
+				if (mm.serverSide) DynamicMappings.serverMappingsSet.add(s);
+			}
+			for (String s : mm.providesMethods) {
+				DynamicMappings.methodMappings.put(s, "--- --- ---");
+				if (mm.clientSide) DynamicMappings.clientMappingsSet.add(s);
+				if (mm.serverSide) DynamicMappings.serverMappingsSet.add(s);
+			}
+		}
+
+		for (String provider : mm.provides)
+		{
+			if (!DynamicMappings.classMappings.containsKey(provider))
+				System.out.println(mm.method.getName() + " didn't provide mapping for class " + provider);
+		}
+
+		for (String provider : mm.providesFields)
+		{
+			if (!DynamicMappings.fieldMappings.containsKey(provider))
+				System.out.println(mm.method.getName() + " didn't provide mapping for field " + provider);
+		}
+
+		for (String provider : mm.providesMethods)
+		{
+			if (!DynamicMappings.methodMappings.containsKey(provider))
+				System.out.println(mm.method.getName() + " didn't provide mapping for method " + provider);
+		}
+	}
+
+
+	private void reportUnmet()
+	{
+		System.out.println("Unmet mapping dependencies in " + name + "!");
+		for (MappingMethod mm : mappingMethods) {
+			if (mm.finished) continue;
+			System.out.println("  Mapper Method: " + mm.mappingsClass.getName() + "." + mm.method.getName());
+			for (String depend : mm.depends) {
+				if (!DynamicMappings.classMappings.containsKey(depend)) System.out.println("    Class: " + depend);
+			}
+			for (String depend : mm.dependsFields) {
+				if (!DynamicMappings.fieldMappings.containsKey(depend)) System.out.println("    Field: " + depend);
+			}
+			for (String depend : mm.dependsMethods) {
+				if (!DynamicMappings.methodMappings.containsKey(depend)) System.out.println("    Method: " + depend);
+			}
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package net.fybertech.dynamicmappings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * An immutable copy of every mapping, taken once generation has finished.
+ *
+ * Each map is copied into an open-addressing table with linear probing, at
+ * most half full.  Nothing is modified after construction, so once a
+ * snapshot has been published through a volatile reference (see
+ * DynamicMappings.getSnapshot) any thread can read it without locking.
+ * Member lookups by owner, name and desc don't allocate at all.
+ */
+public final class MappingSnapshot
+{
+	private static final class Table
+	{
+		final Object[] keys;
+		final Object[] values;
+		final int mask;
+		final int size;
+
+		Table(List<Object> keyList, List<Object> valueList)
+		{
+			int capacity = 2;
+			while (capacity < keyList.size() * 2) capacity <<= 1;
+
+			keys = new Object[capacity];
+			values = new Object[capacity];
+			mask = capacity - 1;
+
+			int count = 0;
+			for (int n = 0; n < keyList.size(); n++) {
+				Object key = keyList.get(n);
+				int slot = spread(key.hashCode()) & mask;
+				while (keys[slot] != null && !keys[slot].equals(key)) slot = (slot + 1) & mask;
+				if (keys[slot] == null) count++;
+				keys[slot] = key;
+				values[slot] = valueList.get(n);
+			}
+			size = count;
+		}
+
+		Object get(Object key)
+		{
+			for (int slot = spread(key.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+				Object k = keys[slot];
+				if (k == null) return null;
+				if (k.equals(key)) return values[slot];
+			}
+		}
+
+		MemberRef getMember(String owner, String name, String desc)
+		{
+			int hash = MemberRef.hash(owner, name, desc);
+			for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+				MemberRef k = (MemberRef)keys[slot];
+				if (k == null) return null;
+				if (k.hashCode() == hash && k.owner.equals(owner) && k.name.equals(name) && k.desc.equals(desc)) return (MemberRef)values[slot];
+			}
+		}
+	}
+
+
+	private static int spread(int hash)
+	{
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+
+	private final Table classes;
+	private final Table reverseClasses;
+	private final Table fields;
+	private final Table reverseFields;
+	private final Table methods;
+	private final Table reverseMethods;
+
+
+	private MappingSnapshot()
+	{
+		classes = copyClasses(DynamicMappings.classMappings);
+		reverseClasses = copyClasses(DynamicMappings.reverseClassMappings);
+		fields = copyMembers(DynamicMappings.fieldMappings);
+		reverseFields = copyMembers(DynamicMappings.reverseFieldMappings);
+		methods = copyMembers(DynamicMappings.methodMappings);
+		reverseMethods = copyMembers(DynamicMappings.reverseMethodMappings);
+	}
+
+
+	/**
+	 * Copies the current contents of the DynamicMappings maps.
+	 */
+	public static MappingSnapshot capture()
+	{
+		return new MappingSnapshot();
+	}
+
+
+	private static Table copyClasses(Map<String, String> map)
+	{
+		// Copied to lists first, the maps are concurrent and may change while iterating
+		List<Object> keys = new ArrayList<Object>(map.size());
+		List<Object> values = new ArrayList<Object>(map.size());
+		for (Map.Entry<String, String> entry : map.entrySet()) {
+			// The table can't hold a null key, and a null value looks up the same as a missing one
+			if (entry.getKey() == null || entry.getValue() == null) continue;
+			keys.add(entry.getKey());
+			values.add(entry.getValue());
+		}
+		return new Table(keys, values);
+	}
+
+
+	private static Table copyMembers(Map<String, String> map)
+	{
+		List<Object> keys = new ArrayList<Object>(map.size());
+		List<Object> values = new ArrayList<Object>(map.size());
+
+		if (map instanceof MemberMappings) {
+			for (Map.Entry<MemberRef, MemberRef> entry : ((MemberMappings)map).refEntrySet()) {
+				keys.add(entry.getKey());
+				values.add(entry.getValue());
+			}
+		}
+		else {
+			for (Map.Entry<String, String> entry : map.entrySet()) {
+				MemberRef key = MemberRef.parse(entry.getKey());
+				MemberRef value = MemberRef.parse(entry.getValue());
+				if (key == null || value == null) continue;
+				keys.add(key.intern());
+				values.add(value.intern());
+			}
+		}
+
+		return new Table(keys, values);
+	}
+
+
+	/** Deobfuscated class -> obfuscated class */
+	public String getClassMapping(String deobfClassName)
+	{
+		return (String)classes.get(deobfClassName);
+	}
+
+
+	/** Obfuscated class -> deobfuscated class */
+	public String getReverseClassMapping(String obfClassName)
+	{
+		return (String)reverseClasses.get(obfClassName);
+	}
+
+
+	/** Deobfuscated field -> obfuscated field */
+	public MemberRef getFieldMapping(String owner, String name, String desc)
+	{
+		return fields.getMember(owner, name, desc);
+	}
+
+
+	/** Obfuscated field -> deobfuscated field */
+	public MemberRef getReverseFieldMapping(String owner, String name, String desc)
+	{
+		return reverseFields.getMember(owner, name, desc);
+	}
+
+
+	/** Deobfuscated method -> obfuscated method */
+	public MemberRef getMethodMapping(String owner, String name, String desc)
+	{
+		return methods.getMember(owner, name, desc);
+	}
+
+
+	/** Obfuscated method -> deobfuscated method */
+	public MemberRef getReverseMethodMapping(String owner, String name, String desc)
+	{
+		return reverseMethods.getMember(owner, name, desc);
+	}
+
+
+	/**
+	 * @param mapping - A deobfuscated "owner name desc" field.
+	 * @return The obfuscated "owner name desc" field, or null.
+	 */
+	public String getFieldMapping(String mapping)
+	{
+		return toString(fields, mapping);
+	}
+
+
+	public String getReverseFieldMapping(String mapping)
+	{
+		return toString(reverseFields, mapping);
+	}
+
+
+	/**
+	 * @param mapping - A deobfuscated "owner name desc" method.
+	 * @return The obfuscated "owner name desc" method, or null.
+	 */
+	public String getMethodMapping(String mapping)
+	{
+		return toString(methods, mapping);
+	}
+
+
+	public String getReverseMethodMapping(String mapping)
+	{
+		return toString(reverseMethods, mapping);
+	}
+
+
+	private static String toString(Table table, String mapping)
+	{
+		MemberRef key = MemberRef.parse(mapping);
+		if (key == null) return null;
+		MemberRef value = table.getMember(key.owner, key.name, key.desc);
+		return value != null ? value.toString() : null;
+	}
+
+
+	public int getClassCount()
+	{
+		return classes.size;
+	}
+
+
+	public int getFieldCount()
+	{
+		return fields.size;
+	}
+
+
+	public int getMethodCount()
+	{
+		return methods.size;
+	}
+}
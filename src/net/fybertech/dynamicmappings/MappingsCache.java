@@ -0,0 +1,364 @@
+package net.fybertech.dynamicmappings;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.objectweb.asm.ClassReader;
+
+
+/**
+ * Saves generated mappings to disk so they don't have to be regenerated on
+ * every launch.
+ *
+ * The cache is keyed on a hash of the Minecraft jar's contents along with
+ * the bytecode of every mappings class (and their superclasses) and every
+ * class in the DynamicMappings package, since the mappers depend on its
+ * helpers.  Updating either the game or the mappers invalidates it.  Class linkages are not cached, and are only built if
+ * something reads them later on.
+ *
+ * Mappings are saved even if some mappers failed or found nothing, since
+ * running them again on the same jar with the same mappers would give the
+ * same result.
+ */
+public class MappingsCache
+{
+	private static final int MAGIC = 0x444D4331; // "DMC1"
+	private static final int FORMAT_VERSION = 1;
+
+	/** Every class under this package is part of the mapper version */
+	private static final String PACKAGE_PATH = "net/fybertech/dynamicmappings/";
+
+	/** Superclasses from these packages aren't part of the mapper version */
+	private static final String[] ignoredPackages = new String[] { "java/", "javax/", "sun/" };
+
+
+	/**
+	 * Computes the cache key for the current jar and mappings classes.
+	 *
+	 * @param jar - The Minecraft jar.
+	 * @param mappingsClasses - Names of the mappings classes that would be run.
+	 * @return The key, or null if the jar couldn't be read.
+	 */
+	public static byte[] computeKey(JarFile jar, List<String> mappingsClasses)
+	{
+		if (jar == null) return null;
+
+		MessageDigest digest = null;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) { return null; }
+
+		byte[] buffer = new byte[65536];
+
+		try {
+			InputStream stream = new FileInputStream(jar.getName());
+			int read;
+			while ((read = stream.read(buffer)) > 0) digest.update(buffer, 0, read);
+			stream.close();
+		} catch (IOException e) { return null; }
+
+		digest.update((byte)FORMAT_VERSION);
+		hashMappers(digest, mappingsClasses);
+
+		return digest.digest();
+	}
+
+
+	/**
+	 * Computes a key for just the mappings classes, ignoring the jar.
+	 *
+	 * @param mappingsClasses - Names of the mappings classes that would be run.
+	 * @return The key, or null if SHA-1 isn't available.
+	 */
+	public static byte[] computeMapperKey(List<String> mappingsClasses)
+	{
+		MessageDigest digest = null;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) { return null; }
+
+		hashMappers(digest, mappingsClasses);
+		return digest.digest();
+	}
+
+
+	private static void hashMappers(MessageDigest digest, List<String> mappingsClasses)
+	{
+		List<String> packageClasses = findPackageClasses();
+		if (packageClasses.isEmpty()) packageClasses.add(DynamicMappings.class.getName());
+		for (String className : packageClasses) {
+			digest.update(className.getBytes());
+			hashClass(digest, className);
+		}
+
+		for (String mapper : mappingsClasses) {
+			digest.update(mapper.getBytes());
+			String className = mapper;
+			while (className != null && !DynamicMappings.startsWithAny(className, ignoredPackages)) {
+				className = hashClass(digest, className);
+			}
+		}
+	}
+
+
+	/**
+	 * Lists the classes in the DynamicMappings package and its subpackages,
+	 * from the jar or directory DynamicMappings was loaded from.
+	 *
+	 * @return The class names in sorted order, or an empty list if the code
+	 * source couldn't be read.
+	 */
+	private static List<String> findPackageClasses()
+	{
+		List<String> output = new ArrayList<String>();
+
+		File location;
+		try {
+			CodeSource source = DynamicMappings.class.getProtectionDomain().getCodeSource();
+			if (source == null || source.getLocation() == null) return output;
+			location = new File(source.getLocation().toURI());
+		} catch (Exception e) {
+			return output;
+		}
+
+		if (location.isDirectory()) {
+			findClassFiles(new File(location, PACKAGE_PATH), PACKAGE_PATH, output);
+		}
+		else if (location.isFile()) {
+			JarFile jar = null;
+			try {
+				jar = new JarFile(location);
+				for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements();) {
+					String name = entries.nextElement().getName();
+					if (name.startsWith(PACKAGE_PATH) && name.endsWith(".class")) output.add(name.substring(0, name.length() - 6));
+				}
+			} catch (IOException e) {
+				output.clear();
+			} finally {
+				if (jar != null) try { jar.close(); } catch (IOException e) {}
+			}
+		}
+
+		Collections.sort(output);
+		return output;
+	}
+
+
+	private static void findClassFiles(File dir, String path, List<String> output)
+	{
+		File[] files = dir.listFiles();
+		if (files == null) return;
+
+		for (File file : files) {
+			if (file.isDirectory()) findClassFiles(file, path + file.getName() + "/", output);
+			else if (file.getName().endsWith(".class")) output.add(path + file.getName().substring(0, file.getName().length() - 6));
+		}
+	}
+
+
+	/**
+	 * Adds a class's bytecode to the digest.
+	 *
+	 * @return The name of its superclass, or null if it couldn't be found.
+	 */
+	private static String hashClass(MessageDigest digest, String className)
+	{
+		className = className.replace(".", "/");
+		InputStream stream = DynamicMappings.class.getClassLoader().getResourceAsStream(className + ".class");
+		if (stream == null) return null;
+
+		try {
+			byte[] bytes = readFully(stream);
+			digest.update(bytes);
+			return new ClassReader(bytes).getSuperName();
+		} catch (IOException e) {
+			return null;
+		} finally {
+			try { stream.close(); } catch (IOException e) {}
+		}
+	}
+
+
+	private static byte[] readFully(InputStream stream) throws IOException
+	{
+		byte[] buffer = new byte[8192];
+		int pos = 0;
+		int read;
+		while ((read = stream.read(buffer, pos, buffer.length - pos)) > 0) {
+			pos += read;
+			if (pos == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		}
+		return Arrays.copyOf(buffer, pos);
+	}
+
+
+	/**
+	 * Loads mappings from the cache file into DynamicMappings if its key
+	 * matches.  Nothing is changed if it doesn't.
+	 *
+	 * @param cacheFile - The cache file to read.
+	 * @param key - The key computed for the current jar and mappers.
+	 * @return True if the mappings were loaded.
+	 */
+	public static boolean load(File cacheFile, byte[] key)
+	{
+		if (key == null || cacheFile == null || !cacheFile.exists()) return false;
+
+		Map<String, String> classes = new HashMap<String, String>();
+		Map<String, String> reverseClasses = new HashMap<String, String>();
+		Map<String, String> fields = new HashMap<String, String>();
+		Map<String, String> reverseFields = new HashMap<String, String>();
+		Map<String, String> methods = new HashMap<String, String>();
+		Map<String, String> reverseMethods = new HashMap<String, String>();
+		String[] clientSet;
+		String[] serverSet;
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) return false;
+
+			byte[] cachedKey = new byte[in.readUnsignedByte()];
+			in.readFully(cachedKey);
+			if (!Arrays.equals(key, cachedKey)) return false;
+
+			readMap(in, classes);
+			readMap(in, reverseClasses);
+			readMap(in, fields);
+			readMap(in, reverseFields);
+			readMap(in, methods);
+			readMap(in, reverseMethods);
+			clientSet = readStrings(in);
+			serverSet = readStrings(in);
+		}
+		catch (IOException e) {
+			System.out.println("[DynamicMappings] Couldn't read mappings cache: " + e.getMessage());
+			return false;
+		}
+		finally {
+			if (in != null) try { in.close(); } catch (IOException e) {}
+		}
+
+		DynamicMappings.classMappings.putAll(classes);
+		DynamicMappings.reverseClassMappings.putAll(reverseClasses);
+		DynamicMappings.fieldMappings.putAll(fields);
+		DynamicMappings.reverseFieldMappings.putAll(reverseFields);
+		DynamicMappings.methodMappings.putAll(methods);
+		DynamicMappings.reverseMethodMappings.putAll(reverseMethods);
+		DynamicMappings.clientMappingsSet.addAll(Arrays.asList(clientSet));
+		DynamicMappings.serverMappingsSet.addAll(Arrays.asList(serverSet));
+
+		return true;
+	}
+
+
+	/**
+	 * Writes the current contents of DynamicMappings to the cache file.
+	 *
+	 * @param cacheFile - The cache file to write.
+	 * @param key - The key computed for the current jar and mappers.
+	 * @return True if the file was written.
+	 */
+	public static boolean save(File cacheFile, byte[] key)
+	{
+		if (key == null || cacheFile == null) return false;
+
+		File parent = cacheFile.getAbsoluteFile().getParentFile();
+		if (parent != null) parent.mkdirs();
+
+		// Write to a temporary file first so a crash can't leave a partial cache behind
+		File tempFile = new File(cacheFile.getPath() + ".tmp");
+
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeByte(key.length);
+			out.write(key);
+
+			writeMap(out, DynamicMappings.classMappings);
+			writeMap(out, DynamicMappings.reverseClassMappings);
+			writeMap(out, DynamicMappings.fieldMappings);
+			writeMap(out, DynamicMappings.reverseFieldMappings);
+			writeMap(out, DynamicMappings.methodMappings);
+			writeMap(out, DynamicMappings.reverseMethodMappings);
+			writeStrings(out, DynamicMappings.clientMappingsSet);
+			writeStrings(out, DynamicMappings.serverMappingsSet);
+
+			out.close();
+			out = null;
+		}
+		catch (IOException e) {
+			System.out.println("[DynamicMappings] Couldn't write mappings cache: " + e.getMessage());
+			tempFile.delete();
+			return false;
+		}
+		finally {
+			if (out != null) try { out.close(); } catch (IOException e) {}
+		}
+
+		cacheFile.delete();
+		return tempFile.renameTo(cacheFile);
+	}
+
+
+	private static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException
+	{
+		// Copy first in case a mapper thread is somehow still writing
+		Map<String, String> copy = new HashMap<String, String>(map);
+		out.writeInt(copy.size());
+		for (Map.Entry<String, String> entry : copy.entrySet()) {
+			out.writeUTF(entry.getKey());
+			out.writeUTF(entry.getValue());
+		}
+	}
+
+
+	private static void readMap(DataInputStream in, Map<String, String> map) throws IOException
+	{
+		int count = in.readInt();
+		for (int n = 0; n < count; n++) {
+			String key = in.readUTF();
+			map.put(key, in.readUTF());
+		}
+	}
+
+
+	private static void writeStrings(DataOutputStream out, Collection<String> strings) throws IOException
+	{
+		String[] array = strings.toArray(new String[0]);
+		out.writeInt(array.length);
+		for (String s : array) out.writeUTF(s);
+	}
+
+
+	private static String[] readStrings(DataInputStream in) throws IOException
+	{
+		String[] strings = new String[in.readInt()];
+		for (int n = 0; n < strings.length; n++) strings[n] = in.readUTF();
+		return strings;
+	}
+}
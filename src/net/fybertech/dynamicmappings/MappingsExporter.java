@@ -0,0 +1,332 @@
+package net.fybertech.dynamicmappings;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.fybertech.dynamicmappings.ParmParser.Parm;
+
+import org.objectweb.asm.Type;
+
+
+/**
+ * Writes the current mappings in formats used by other tools.
+ *
+ * Entries are written straight from the DynamicMappings maps as they're
+ * iterated, so the output isn't sorted.  SRG and CSRG are one line per
+ * entry.  Tiny and ProGuard list members under their class, so members are
+ * grouped by class first, but nothing is sorted or converted to strings
+ * ahead of time.
+ *
+ * Mappings only found on one side (see MappingsClass) are marked with a
+ * comment, as none of the formats have a field for it.
+ */
+public class MappingsExporter
+{
+	private final PrintWriter out;
+
+
+	private MappingsExporter(PrintWriter out)
+	{
+		this.out = out;
+	}
+
+
+	/** One member mapping, deobfuscated and obfuscated */
+	private static class Member
+	{
+		final MemberRef deobf;
+		final MemberRef obf;
+		final boolean isMethod;
+
+		Member(MemberRef deobf, MemberRef obf, boolean isMethod)
+		{
+			this.deobf = deobf;
+			this.obf = obf;
+			this.isMethod = isMethod;
+		}
+	}
+
+
+	private static Iterable<Map.Entry<MemberRef, MemberRef>> fieldEntries()
+	{
+		return ((MemberMappings)DynamicMappings.fieldMappings).refEntrySet();
+	}
+
+
+	private static Iterable<Map.Entry<MemberRef, MemberRef>> methodEntries()
+	{
+		return ((MemberMappings)DynamicMappings.methodMappings).refEntrySet();
+	}
+
+
+	/**
+	 * @return True if the mapping is a placeholder from simulatedMappings.
+	 */
+	private static boolean isPlaceholder(String obf)
+	{
+		return obf.startsWith("---");
+	}
+
+
+	/**
+	 * @return "client", "server", or null if the mapping isn't side specific.
+	 */
+	private static String getSide(String deobfMapping)
+	{
+		boolean client = DynamicMappings.clientMappingsSet.contains(deobfMapping);
+		boolean server = DynamicMappings.serverMappingsSet.contains(deobfMapping);
+		if (client == server) return null;
+		return client ? "client" : "server";
+	}
+
+
+	private void line(String s)
+	{
+		out.print(s);
+		out.print('\n');
+	}
+
+
+	/**
+	 * @param deobfMapping - The class name or member, only converted to a
+	 * string if any mappings are side specific.
+	 */
+	private void sideComment(String prefix, Object deobfMapping)
+	{
+		if (DynamicMappings.clientMappingsSet.isEmpty() && DynamicMappings.serverMappingsSet.isEmpty()) return;
+		String side = getSide(deobfMapping.toString());
+		if (side != null) line(prefix + side + " only");
+	}
+
+
+
+	/**
+	 * Writes SRG, mapping obfuscated names to deobfuscated ones.
+	 */
+	public static void writeSrg(PrintWriter writer)
+	{
+		MappingsExporter exporter = new MappingsExporter(writer);
+
+		for (Map.Entry<String, String> entry : DynamicMappings.classMappings.entrySet()) {
+			if (isPlaceholder(entry.getValue())) continue;
+			exporter.sideComment("# ", entry.getKey());
+			exporter.line("CL: " + entry.getValue() + " " + entry.getKey());
+		}
+
+		for (Map.Entry<MemberRef, MemberRef> entry : fieldEntries()) {
+			MemberRef deobf = entry.getKey(), obf = entry.getValue();
+			if (isPlaceholder(obf.owner)) continue;
+			exporter.sideComment("# ", deobf);
+			exporter.line("FD: " + obf.owner + "/" + obf.name + " " + deobf.owner + "/" + deobf.name);
+		}
+
+		for (Map.Entry<MemberRef, MemberRef> entry : methodEntries()) {
+			MemberRef deobf = entry.getKey(), obf = entry.getValue();
+			if (isPlaceholder(obf.owner)) continue;
+			exporter.sideComment("# ", deobf);
+			exporter.line("MD: " + obf.owner + "/" + obf.name + " " + obf.desc + " " + deobf.owner + "/" + deobf.name + " " + deobf.desc);
+		}
+
+		writer.flush();
+	}
+
+
+	/**
+	 * Writes compact SRG, mapping obfuscated names to deobfuscated ones.
+	 */
+	public static void writeCsrg(PrintWriter writer)
+	{
+		MappingsExporter exporter = new MappingsExporter(writer);
+
+		for (Map.Entry<String, String> entry : DynamicMappings.classMappings.entrySet()) {
+			if (isPlaceholder(entry.getValue())) continue;
+			exporter.sideComment("# ", entry.getKey());
+			exporter.line(entry.getValue() + " " + entry.getKey());
+		}
+
+		for (Map.Entry<MemberRef, MemberRef> entry : fieldEntries()) {
+			MemberRef deobf = entry.getKey(), obf = entry.getValue();
+			if (isPlaceholder(obf.owner)) continue;
+			exporter.sideComment("# ", deobf);
+			exporter.line(obf.owner + " " + obf.name + " " + deobf.name);
+		}
+
+		for (Map.Entry<MemberRef, MemberRef> entry : methodEntries()) {
+			MemberRef deobf = entry.getKey(), obf = entry.getValue();
+			if (isPlaceholder(obf.owner)) continue;
+			exporter.sideComment("# ", deobf);
+			exporter.line(obf.owner + " " + obf.name + " " + obf.desc + " " + deobf.name);
+		}
+
+		writer.flush();
+	}
+
+
+	/**
+	 * @return Deobfuscated class -> its mapped fields and methods.
+	 */
+	private static Map<String, List<Member>> groupMembers()
+	{
+		Map<String, List<Member>> members = new HashMap<String, List<Member>>();
+		addMembers(members, fieldEntries(), false);
+		addMembers(members, methodEntries(), true);
+		return members;
+	}
+
+
+	private static void addMembers(Map<String, List<Member>> members, Iterable<Map.Entry<MemberRef, MemberRef>> entries, boolean isMethod)
+	{
+		for (Map.Entry<MemberRef, MemberRef> entry : entries) {
+			if (isPlaceholder(entry.getValue().owner)) continue;
+
+			List<Member> list = members.get(entry.getKey().owner);
+			if (list == null) { list = new ArrayList<Member>(); members.put(entry.getKey().owner, list); }
+			list.add(new Member(entry.getKey(), entry.getValue(), isMethod));
+		}
+	}
+
+
+	/**
+	 * Writes Tiny v2 with "official" (obfuscated) and "named" namespaces.
+	 * Side specific mappings get a Tiny comment.
+	 */
+	public static void writeTiny(PrintWriter writer)
+	{
+		MappingsExporter exporter = new MappingsExporter(writer);
+		Map<String, List<Member>> members = groupMembers();
+
+		exporter.line("tiny\t2\t0\tofficial\tnamed");
+
+		for (Map.Entry<String, String> entry : DynamicMappings.classMappings.entrySet()) {
+			if (isPlaceholder(entry.getValue())) continue;
+			exporter.tinyClass(entry.getValue(), entry.getKey(), members.remove(entry.getKey()));
+		}
+
+		// Members of classes that keep their name
+		for (Map.Entry<String, List<Member>> entry : members.entrySet()) {
+			String obfOwner = entry.getValue().get(0).obf.owner;
+			exporter.tinyClass(obfOwner, entry.getKey(), entry.getValue());
+		}
+
+		writer.flush();
+	}
+
+
+	private void tinyClass(String obfName, String deobfName, List<Member> members)
+	{
+		line("c\t" + obfName + "\t" + deobfName);
+		sideComment("\tc\t", deobfName);
+		if (members == null) return;
+
+		for (Member member : members) {
+			line("\t" + (member.isMethod ? "m" : "f") + "\t" + member.obf.desc + "\t" + member.obf.name + "\t" + member.deobf.name);
+			sideComment("\t\tc\t", member.deobf);
+		}
+	}
+
+
+	/**
+	 * Writes a ProGuard mapping file, mapping deobfuscated names to
+	 * obfuscated ones.  Side specific mappings get a comment.
+	 */
+	public static void writeProguard(PrintWriter writer)
+	{
+		MappingsExporter exporter = new MappingsExporter(writer);
+		Map<String, List<Member>> members = groupMembers();
+
+		for (Map.Entry<String, String> entry : DynamicMappings.classMappings.entrySet()) {
+			if (isPlaceholder(entry.getValue())) continue;
+			exporter.proguardClass(entry.getKey(), entry.getValue(), members.remove(entry.getKey()));
+		}
+
+		for (Map.Entry<String, List<Member>> entry : members.entrySet()) {
+			exporter.proguardClass(entry.getKey(), entry.getValue().get(0).obf.owner, entry.getValue());
+		}
+
+		writer.flush();
+	}
+
+
+	private void proguardClass(String deobfName, String obfName, List<Member> members)
+	{
+		sideComment("# ", deobfName);
+		line(deobfName.replace('/', '.') + " -> " + obfName.replace('/', '.') + ":");
+		if (members == null) return;
+
+		for (Member member : members) {
+			sideComment("    # ", member.deobf);
+
+			if (!member.isMethod) {
+				line("    " + Type.getType(member.deobf.desc).getClassName() + " " + member.deobf.name + " -> " + member.obf.name);
+				continue;
+			}
+
+			StringBuilder sb = new StringBuilder("    ");
+			sb.append(Type.getReturnType(member.deobf.desc).getClassName()).append(' ').append(member.deobf.name).append('(');
+			Type[] args = Type.getArgumentTypes(member.deobf.desc);
+			for (int n = 0; n < args.length; n++) {
+				if (n > 0) sb.append(',');
+				sb.append(args[n].getClassName());
+			}
+			sb.append(") -> ").append(member.obf.name);
+			line(sb.toString());
+		}
+	}
+
+
+
+	/**
+	 * Exports mappings, either generated or loaded from a binary mappings file.
+	 *
+	 * -format srg|csrg|tiny|proguard -o output [-mappings input.bin]
+	 */
+	public static void main(String[] args)
+	{
+		ParmParser pp = new ParmParser();
+		Parm formatParm = pp.addParm("-format", 1);
+		Parm outputParm = pp.addParm("-o", 1);
+		Parm mappingsParm = pp.addParm("-mappings", 1);
+		pp.processArgs(args);
+
+		String format = formatParm.found ? formatParm.getFirstResult().toLowerCase() : "srg";
+		if (!format.equals("srg") && !format.equals("csrg") && !format.equals("tiny") && !format.equals("proguard")) {
+			System.out.println("Unknown format " + format + ", expected srg, csrg, tiny or proguard");
+			return;
+		}
+		File outputFile = new File(outputParm.found ? outputParm.getFirstResult() : "mappings." + format);
+
+		if (mappingsParm.found) {
+			try {
+				BinaryMappings.load(new File(mappingsParm.getFirstResult())).install();
+			} catch (IOException e) {
+				System.out.println("Couldn't load mappings from " + mappingsParm.getFirstResult() + ": " + e.getMessage());
+				return;
+			}
+		}
+		else DynamicMappings.generateClassMappings();
+
+		PrintWriter writer = null;
+		try {
+			writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), Charset.forName("UTF-8"))));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+
+		if (format.equals("srg")) writeSrg(writer);
+		else if (format.equals("csrg")) writeCsrg(writer);
+		else if (format.equals("tiny")) writeTiny(writer);
+		else writeProguard(writer);
+
+		writer.close();
+	}
+}
@@ -0,0 +1,245 @@
+package net.fybertech.dynamicmappings;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Thread-safe store of member mappings, keyed and valued by MemberRef.
+ *
+ * Also works as a Map of "owner name desc" strings, so existing code using
+ * DynamicMappings.fieldMappings and friends as plain maps keeps working.
+ * The string methods convert to and from MemberRefs on each call, so
+ * anything looking members up often should use the MemberRef methods, or
+ * the static helpers for maps that may or may not be a MemberMappings.
+ *
+ * Like the HashMaps this replaces, any string entry can be put, including
+ * nulls.  Entries that aren't "owner name desc" on both sides are kept as
+ * plain strings, and are only seen through the Map methods, not the
+ * MemberRef ones or MappingSnapshot.
+ *
+ * An optional callback is run after every change, however it's made.
+ */
+public class MemberMappings extends AbstractMap<String, String>
+{
+	private final ConcurrentHashMap<MemberRef, MemberRef> mappings = new ConcurrentHashMap<MemberRef, MemberRef>();
+	/** Entries that couldn't be stored as MemberRefs, usually empty */
+	private final WatchedMap<String, String> other;
+	private final Runnable onChange;
+
+
+	public MemberMappings()
+	{
+		this(null);
+	}
+
+
+	/**
+	 * @param onChange - Run after the mappings are changed, or null.
+	 */
+	public MemberMappings(Runnable onChange)
+	{
+		this.onChange = onChange;
+		this.other = new WatchedMap<String, String>(new Runnable() {
+			@Override
+			public void run()
+			{
+				changed();
+			}
+		});
+	}
+
+
+	private void changed()
+	{
+		if (onChange != null) onChange.run();
+	}
+
+
+	public MemberRef get(MemberRef key)
+	{
+		return mappings.get(key);
+	}
+
+
+	public MemberRef get(String owner, String name, String desc)
+	{
+		return mappings.get(new MemberRef(owner, name, desc));
+	}
+
+
+	public boolean contains(MemberRef key)
+	{
+		return mappings.containsKey(key);
+	}
+
+
+	public MemberRef put(MemberRef key, MemberRef value)
+	{
+		if (!other.isEmpty()) other.remove(key.toString());
+		MemberRef old = mappings.put(key.intern(), value.intern());
+		changed();
+		return old;
+	}
+
+
+	/**
+	 * Looks up a member in a mapping map, without building a key string if
+	 * the map is a MemberMappings.
+	 */
+	public static MemberRef get(Map<String, String> map, String owner, String name, String desc)
+	{
+		if (map instanceof MemberMappings) return ((MemberMappings)map).get(owner, name, desc);
+		return MemberRef.parse(map.get(owner + " " + name + " " + desc));
+	}
+
+
+	/**
+	 * Looks up an "owner name desc" string in a mapping map.
+	 */
+	public static MemberRef get(Map<String, String> map, String key)
+	{
+		if (map instanceof MemberMappings) {
+			MemberRef ref = MemberRef.parse(key);
+			return ref != null ? ((MemberMappings)map).get(ref) : null;
+		}
+		return MemberRef.parse(map.get(key));
+	}
+
+
+	@Override
+	public String get(Object key)
+	{
+		MemberRef ref = key instanceof String ? MemberRef.parse((String)key) : null;
+		MemberRef value = ref != null ? mappings.get(ref) : null;
+		if (value != null) return value.toString();
+		return other.isEmpty() ? null : other.get(key);
+	}
+
+
+	@Override
+	public boolean containsKey(Object key)
+	{
+		MemberRef ref = key instanceof String ? MemberRef.parse((String)key) : null;
+		if (ref != null && mappings.containsKey(ref)) return true;
+		return !other.isEmpty() && other.containsKey(key);
+	}
+
+
+	@Override
+	public String put(String key, String value)
+	{
+		MemberRef keyRef = MemberRef.parse(key);
+		MemberRef valueRef = MemberRef.parse(value);
+
+		if (keyRef != null && valueRef != null) {
+			String old = other.isEmpty() ? null : other.remove(key);
+			MemberRef oldRef = put(keyRef, valueRef);
+			return oldRef != null ? oldRef.toString() : old;
+		}
+
+		MemberRef oldRef = keyRef != null ? mappings.remove(keyRef) : null;
+		String old = other.put(key, value);
+		return oldRef != null ? oldRef.toString() : old;
+	}
+
+
+	@Override
+	public String remove(Object key)
+	{
+		MemberRef ref = key instanceof String ? MemberRef.parse((String)key) : null;
+		MemberRef old = ref != null ? mappings.remove(ref) : null;
+		if (old != null) {
+			changed();
+			return old.toString();
+		}
+		return other.isEmpty() ? null : other.remove(key);
+	}
+
+
+	@Override
+	public int size()
+	{
+		return mappings.size() + other.size();
+	}
+
+
+	@Override
+	public void clear()
+	{
+		mappings.clear();
+		other.clear();
+	}
+
+
+	/**
+	 * @return The mappings as MemberRefs, which unlike entrySet doesn't
+	 * build any strings.  Leaves out entries that aren't members.  Read-only.
+	 */
+	public Set<Map.Entry<MemberRef, MemberRef>> refEntrySet()
+	{
+		return Collections.unmodifiableMap(mappings).entrySet();
+	}
+
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet()
+	{
+		return new AbstractSet<Map.Entry<String, String>>() {
+			@Override
+			public Iterator<Map.Entry<String, String>> iterator()
+			{
+				final Iterator<Map.Entry<MemberRef, MemberRef>> iterator = mappings.entrySet().iterator();
+				final Iterator<Map.Entry<String, String>> otherIterator = other.entrySet().iterator();
+				return new Iterator<Map.Entry<String, String>>() {
+					/** Set once the member entries run out and the plain ones are being returned */
+					boolean inOther = false;
+
+					@Override
+					public boolean hasNext()
+					{
+						return (!inOther && iterator.hasNext()) || otherIterator.hasNext();
+					}
+
+					@Override
+					public Map.Entry<String, String> next()
+					{
+						if (!inOther && iterator.hasNext()) {
+							Map.Entry<MemberRef, MemberRef> entry = iterator.next();
+							return new AbstractMap.SimpleImmutableEntry<String, String>(entry.getKey().toString(), entry.getValue().toString());
+						}
+						inOther = true;
+						return otherIterator.next();
+					}
+
+					@Override
+					public void remove()
+					{
+						if (inOther) otherIterator.remove();
+						else {
+							iterator.remove();
+							changed();
+						}
+					}
+				};
+			}
+
+			@Override
+			public int size()
+			{
+				return MemberMappings.this.size();
+			}
+
+			@Override
+			public void clear()
+			{
+				MemberMappings.this.clear();
+			}
+		};
+	}
+}
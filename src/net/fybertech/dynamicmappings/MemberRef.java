@@ -0,0 +1,102 @@
+package net.fybertech.dynamicmappings;
+
+
+/**
+ * A field or method reference, the structured form of the "owner name desc"
+ * strings used for member mappings.
+ *
+ * The hash is worked out once, and the string form is only built if it's
+ * asked for.  References stored in a MemberMappings have their parts
+ * interned, so the many references sharing an owner or descriptor share
+ * the same strings.
+ */
+public final class MemberRef
+{
+	public final String owner;
+	public final String name;
+	public final String desc;
+
+	private final int hash;
+	private String string = null;
+
+
+	public MemberRef(String owner, String name, String desc)
+	{
+		if (owner == null || name == null || desc == null) throw new NullPointerException();
+
+		this.owner = owner;
+		this.name = name;
+		this.desc = desc;
+		this.hash = hash(owner, name, desc);
+	}
+
+
+	/**
+	 * @return The hash code a MemberRef with these parts would have.
+	 */
+	static int hash(String owner, String name, String desc)
+	{
+		return (owner.hashCode() * 31 + name.hashCode()) * 31 + desc.hashCode();
+	}
+
+
+	/**
+	 * Parses an "owner name desc" string.
+	 *
+	 * @return The reference, or null if the string isn't in that format.
+	 */
+	public static MemberRef parse(String s)
+	{
+		if (s == null) return null;
+
+		int first = s.indexOf(' ');
+		if (first < 0) return null;
+		int second = s.indexOf(' ', first + 1);
+		if (second < 0 || s.indexOf(' ', second + 1) >= 0) return null;
+
+		MemberRef ref = new MemberRef(s.substring(0, first), s.substring(first + 1, second), s.substring(second + 1));
+		ref.string = s;
+		return ref;
+	}
+
+
+	/**
+	 * @return An equal reference whose parts are interned.
+	 */
+	public MemberRef intern()
+	{
+		MemberRef ref = new MemberRef(owner.intern(), name.intern(), desc.intern());
+		ref.string = string;
+		return ref;
+	}
+
+
+	@Override
+	public int hashCode()
+	{
+		return hash;
+	}
+
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj) return true;
+		if (!(obj instanceof MemberRef)) return false;
+		MemberRef other = (MemberRef)obj;
+		return hash == other.hash && owner.equals(other.owner) && name.equals(other.name) && desc.equals(other.desc);
+	}
+
+
+	/**
+	 * @return The "owner name desc" form of the reference.
+	 */
+	@Override
+	public String toString()
+	{
+		// Racy, but every thread builds the same string
+		String s = string;
+		if (s == null) string = s = owner + " " + name + " " + desc;
+		return s;
+	}
+}
@@ -0,0 +1,41 @@
+package net.fybertech.dynamicmappings;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Maps an (owner, name, desc) member reference to a value, without having
+ * to build "owner name desc" strings for every lookup.
+ */
+public class MemberTable
+{
+	private final Map<MemberRef, String> values = new HashMap<MemberRef, String>();
+
+
+	public void put(String owner, String name, String desc, String value)
+	{
+		values.put(new MemberRef(owner, name, desc), value);
+	}
+
+
+	/**
+	 * @return The value for the member, or null if there isn't one.
+	 */
+	public String get(String owner, String name, String desc)
+	{
+		return values.get(new MemberRef(owner, name, desc));
+	}
+
+
+	public int size()
+	{
+		return values.size();
+	}
+
+
+	public void clear()
+	{
+		values.clear();
+	}
+}
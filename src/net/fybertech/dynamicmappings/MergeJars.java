@@ -5,13 +5,18 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
 import java.util.zip.ZipEntry;
 
 import org.objectweb.asm.ClassReader;
@@ -25,11 +30,16 @@ import org.objectweb.asm.tree.MethodNode;
 
 public class MergeJars 
 {
-	public static Map<String, ClassInfo> classes = new HashMap<String, ClassInfo>();
-	public static Map<String, MiscInfo> miscFiles = new HashMap<String, MiscInfo>();
+	public static Map<String, ClassInfo> classes = new LinkedHashMap<String, ClassInfo>();
+	public static Map<String, MiscInfo> miscFiles = new LinkedHashMap<String, MiscInfo>();
 	
 	public static boolean quiet = false;
 	
+	/** Number of threads classes are merged on */
+	public static int threads = Runtime.getRuntime().availableProcessors();
+	/** Classes handed to each thread per batch, bounds how much class data is held at once */
+	private static final int BATCH_PER_THREAD = 16;
+	
 	public static final int CLIENT = 1;
 	public static final int SERVER = 2;
 	public static final int BOTH = 3;
@@ -49,6 +59,10 @@ public class MergeJars
 		Map<String, MethodInfo> methods = new HashMap<String, MethodInfo>();
 		
 		int onClientServer = 0;
+		
+		// The class isn't read until it's merged, and only parsed if the two sides differ
+		JarEntry clientEntry;
+		JarEntry serverEntry;
 	}
 	
 	public static class FieldInfo
@@ -105,48 +119,188 @@ public class MergeJars
 				continue;
 			}
 			
-			byte[] buffer = getFileFromJar(entry, jarFile);
+			String className = entryName.substring(0, entryName.length() - 6);
 			
-			ClassReader reader = new ClassReader(buffer);
-			ClassNode cn = new ClassNode();
-			reader.accept(cn, 0);			
-			
-			ClassInfo info = classes.get(cn.name);
-			if (info == null) { info = new ClassInfo(); classes.put(cn.name, info); }
-			info.name = cn.name;
+			ClassInfo info = classes.get(className);
+			if (info == null) { info = new ClassInfo(); classes.put(className, info); }
+			info.name = className;
 			info.onClientServer |= clientOrServer;
 			
-			for (FieldNode field : (List<FieldNode>)cn.fields)
-			{				
-				FieldInfo finfo = info.fields.get(field.name);
-				if (finfo == null)
-				{ 
-					finfo = new FieldInfo();
-					finfo.name = field.name;
-					finfo.desc = field.desc;
-					info.fields.put(field.name, finfo);
+			if (clientOrServer == CLIENT) info.clientEntry = entry;
+			else info.serverEntry = entry;
+		}
+		
+		return jarFile;
+		
+	}
+	
+	
+	/**
+	 * Records which side each of a class's fields and methods are on.
+	 */
+	public static void discoverMembers(ClassInfo info, ClassNode cn, int clientOrServer)
+	{
+		for (FieldNode field : (List<FieldNode>)cn.fields)
+		{				
+			FieldInfo finfo = info.fields.get(field.name);
+			if (finfo == null)
+			{ 
+				finfo = new FieldInfo();
+				finfo.name = field.name;
+				finfo.desc = field.desc;
+				info.fields.put(field.name, finfo);
+			}
+			finfo.onClientServer |= clientOrServer;
+		}
+		
+		for (MethodNode method : (List<MethodNode>)cn.methods)
+		{
+			MethodInfo minfo = info.methods.get(method.name + method.desc);
+			if (minfo == null)
+			{
+				minfo = new MethodInfo();
+				minfo.name = method.name;
+				minfo.desc = method.desc;				
+				info.methods.put(method.name + method.desc, minfo);	
+			}
+			minfo.onClientServer |= clientOrServer;
+		}
+	}
+	
+	
+	public static ClassNode parseClass(byte[] buffer)
+	{
+		ClassReader reader = new ClassReader(buffer);
+		ClassNode node = new ClassNode();
+		reader.accept(node, 0);
+		return node;
+	}
+	
+	
+	/**
+	 * Checks if the class is byte-for-byte the same in both jars.  The CRCs
+	 * and sizes recorded in the jars are compared first, so the data is only
+	 * compared when it's very likely to match.
+	 */
+	private static boolean isIdentical(ClassInfo info, byte[] clientData, byte[] serverData)
+	{
+		if (info.clientEntry.getSize() != info.serverEntry.getSize()) return false;
+		if (info.clientEntry.getCrc() != info.serverEntry.getCrc()) return false;
+		return Arrays.equals(clientData, serverData);
+	}
+	
+	
+	private static void writeClass(JarWriter outputJar, String name, byte[] classData)
+	{
+		try {
+			outputJar.writeEntry(name + ".class", classData);
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	
+	/**
+	 * Copies a file from one of the input jars unchanged.  If the jar could
+	 * be mapped, the file is copied still compressed, otherwise it's read
+	 * and compressed again.
+	 */
+	private static void copyFile(JarWriter outputJar, String name, MappedJarClassSource source, JarFile jar)
+	{
+		try {
+			MappedJarClassSource.Entry raw = source != null ? source.getEntry(name) : null;
+			if (raw != null) outputJar.copyEntry(source, raw);
+			else outputJar.writeEntry(name, getFileFromJar(name, jar));
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	
+	private static byte[] addSideAnnotation(byte[] classData, String annotation)
+	{
+		ClassNode node = parseClass(classData);
+		
+		if (node.visibleAnnotations == null) node.visibleAnnotations = new ArrayList();
+		node.visibleAnnotations.add(new AnnotationNode(annotation));
+		
+		ClassWriter writer = new ClassWriter(Opcodes.ASM4);
+		node.accept(writer);
+		return writer.toByteArray();
+	}
+	
+	
+	/**
+	 * Merges the server-only members into the client class, annotating every
+	 * member that's only on one side.
+	 */
+	private static byte[] mergeClass(ClassInfo info, byte[] clientData, byte[] serverData)
+	{
+		ClassNode clientClass = parseClass(clientData);
+		ClassNode serverClass = parseClass(serverData);
+		
+		discoverMembers(info, clientClass, CLIENT);
+		discoverMembers(info, serverClass, SERVER);
+		
+		for (FieldInfo field : info.fields.values())
+		{
+			if (field.onClientServer == SERVER)
+			{
+				FieldNode serverField = null;
+				for (FieldNode fn : (List<FieldNode>)serverClass.fields)
+				{
+					if (fn.name.equals(field.name)) { serverField = fn; break; }
 				}
-				finfo.onClientServer |= clientOrServer;
+				
+				if (serverField.visibleAnnotations == null) serverField.visibleAnnotations = new ArrayList();
+				serverField.visibleAnnotations.add(new AnnotationNode("Lnet/fybertech/meddleapi/side/ServerOnly;"));
+				clientClass.fields.add(serverField);
 			}
-			
-			for (MethodNode method : (List<MethodNode>)cn.methods)
+			else if (field.onClientServer == CLIENT)
 			{
-				MethodInfo minfo = info.methods.get(method.name + method.desc);
-				if (minfo == null)
+				FieldNode clientField = null;
+				for (FieldNode fn : (List<FieldNode>)clientClass.fields)
 				{
-					minfo = new MethodInfo();
-					minfo.name = method.name;
-					minfo.desc = method.desc;				
-					info.methods.put(method.name + method.desc, minfo);	
+					if (fn.name.equals(field.name)) { clientField = fn; break; }
 				}
-				minfo.onClientServer |= clientOrServer;
 				
-			}			
-			
+				if (clientField.visibleAnnotations == null) clientField.visibleAnnotations = new ArrayList();
+				clientField.visibleAnnotations.add(new AnnotationNode("Lnet/fybertech/meddleapi/side/ClientOnly;"));
+			}
 		}
 		
-		return jarFile;
+		for (MethodInfo method : info.methods.values())
+		{
+			if (method.onClientServer == SERVER)
+			{
+				MethodNode serverMethod = null;
+				for (MethodNode fn : (List<MethodNode>)serverClass.methods)
+				{
+					if (fn.name.equals(method.name) && fn.desc.equals(method.desc)) { serverMethod = fn; break; }
+				}
+				
+				if (serverMethod.visibleAnnotations == null) serverMethod.visibleAnnotations = new ArrayList();
+				serverMethod.visibleAnnotations.add(new AnnotationNode("Lnet/fybertech/meddleapi/side/ServerOnly;"));
+				clientClass.methods.add(serverMethod);
+			}
+			else if (method.onClientServer == CLIENT)
+			{
+				MethodNode clientMethod = null;
+				for (MethodNode fn : (List<MethodNode>)clientClass.methods)
+				{
+					if (fn.name.equals(method.name) && fn.desc.equals(method.desc)) { clientMethod = fn; break; }
+				}
+				
+				if (clientMethod.visibleAnnotations == null) clientMethod.visibleAnnotations = new ArrayList();
+				clientMethod.visibleAnnotations.add(new AnnotationNode("Lnet/fybertech/meddleapi/side/ClientOnly;"));						
+			}
+		}
 		
+		ClassWriter writer = new ClassWriter(Opcodes.ASM4);
+		clientClass.accept(writer);
+		return writer.toByteArray();
 	}
 	
 	
@@ -258,14 +412,21 @@ public class MergeJars
 	
 	public static void mergeJars(File clientJarFile, File serverJarFile, File outputFile)
 	{
+		// In case a previous merge didn't finish
+		reset();
+		
 		if (!quiet) System.out.println("> Parsing client");
 		JarFile clientJar = discoverClasses(clientJarFile, CLIENT);
 		if (!quiet) System.out.println("> Parsing server");
 		JarFile serverJar = discoverClasses(serverJarFile, SERVER);
 		
-		JarOutputStream outputJar = null;		
+		// Unchanged files are copied straight out of these without being decompressed
+		MappedJarClassSource clientSource = MappedJarClassSource.build(clientJarFile);
+		MappedJarClassSource serverSource = MappedJarClassSource.build(serverJarFile);
+		
+		JarWriter outputJar = null;		
 		try {
-			outputJar = new JarOutputStream(new FileOutputStream(outputFile));
+			outputJar = new JarWriter(new FileOutputStream(outputFile), clientJar.size() + serverJar.size(), clientJarFile.length() + serverJarFile.length());
 		} catch (IOException e) {
 			e.printStackTrace();
 		}		
@@ -275,155 +436,130 @@ public class MergeJars
 		
 		for (MiscInfo info : miscFiles.values())
 		{
-			if ((info.onClientServer & CLIENT) == CLIENT)
-			{
-				ZipEntry entry = clientJar.getEntry(info.name);
-				try {
-					outputJar.putNextEntry(new ZipEntry(entry));
-					outputJar.write(getFileFromJar(entry, clientJar));
-				} catch (IOException e) {					
-					e.printStackTrace();
-				}			
-			}
-			else
-			{
-				ZipEntry entry = serverJar.getEntry(info.name);
-				try {
-					outputJar.putNextEntry(new ZipEntry(entry));
-					outputJar.write(getFileFromJar(entry, serverJar));
-				} catch (IOException e) {					
-					e.printStackTrace();
-				}			
-			}
+			if ((info.onClientServer & CLIENT) == CLIENT) copyFile(outputJar, info.name, clientSource, clientJar);
+			else copyFile(outputJar, info.name, serverSource, serverJar);
 		}
 		
 		
-		for (ClassInfo info : classes.values())
-		{			
-			if (info.onClientServer == CLIENT)
-			{				
-				ClassNode clientClass = getClassFromJar(info.name, clientJar);				
-			
-				if (clientClass.visibleAnnotations == null) clientClass.visibleAnnotations = new ArrayList();
-				clientClass.visibleAnnotations.add(new AnnotationNode("Lnet/fybertech/meddleapi/side/ClientOnly;"));
-				
-				ClassWriter writer = new ClassWriter(Opcodes.ASM4);
-				clientClass.accept(writer);
-				
-				byte[] classData = writer.toByteArray();
-				//writeToFile(outputFilename + File.separator + info.name + ".class", classData);
-				try {
-					outputJar.putNextEntry(new ZipEntry(info.name + ".class"));
-					outputJar.write(classData);
-				}
-				catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-			else if (info.onClientServer == SERVER)
-			{				
-				ClassNode serverClass = getClassFromJar(info.name, serverJar);				
-				
-				if (serverClass.visibleAnnotations == null) serverClass.visibleAnnotations = new ArrayList();
-				serverClass.visibleAnnotations.add(new AnnotationNode("Lnet/fybertech/meddleapi/side/ServerOnly;"));
-				
-				ClassWriter writer = new ClassWriter(Opcodes.ASM4);
-				serverClass.accept(writer);
-				
-				byte[] classData = writer.toByteArray();
-				
-				//writeToFile(outputFilename + File.separator + info.name + ".class", classData);
-				try {
-					outputJar.putNextEntry(new ZipEntry(info.name + ".class"));
-					outputJar.write(classData);
-				}
-				catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-			else
+		mergeClasses(clientJar, serverJar, clientSource, outputJar);
+		
+		
+		try {
+			clientJar.close();
+			serverJar.close();
+			outputJar.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		
+		reset();
+	}
+	
+	
+	/**
+	 * Produces the output data for a single class.
+	 * 
+	 * @return The merged class, or null if the client's copy should be
+	 * written unchanged.
+	 */
+	private static byte[] processClass(ClassInfo info, JarFile clientJar, JarFile serverJar)
+	{
+		if (info.onClientServer == CLIENT)
+		{				
+			byte[] clientData = getFileFromJar(info.clientEntry, clientJar);
+			return addSideAnnotation(clientData, "Lnet/fybertech/meddleapi/side/ClientOnly;");
+		}
+		else if (info.onClientServer == SERVER)
+		{				
+			byte[] serverData = getFileFromJar(info.serverEntry, serverJar);
+			return addSideAnnotation(serverData, "Lnet/fybertech/meddleapi/side/ServerOnly;");
+		}
+		
+		byte[] clientData = getFileFromJar(info.clientEntry, clientJar);
+		byte[] serverData = getFileFromJar(info.serverEntry, serverJar);
+		
+		// Nothing to merge, so skip the round trip through ASM
+		if (isIdentical(info, clientData, serverData)) return null;
+		return mergeClass(info, clientData, serverData);
+	}
+	
+	
+	/**
+	 * Merges and writes every discovered class, in discovery order.
+	 * 
+	 * Classes are handed to the worker threads in batches, and each batch is
+	 * written out before the next one starts, so only a batch's worth of
+	 * class data is in memory at once.  Per-class state is dropped as soon as
+	 * the class is written.  Classes identical on both sides are copied
+	 * from the client jar without being recompressed.
+	 */
+	private static void mergeClasses(final JarFile clientJar, final JarFile serverJar, MappedJarClassSource clientSource, JarWriter outputJar)
+	{
+		List<ClassInfo> infos = new ArrayList<ClassInfo>(classes.values());
+		int batchSize = Math.max(1, threads) * BATCH_PER_THREAD;
+		
+		ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+		try {
+			for (int start = 0; start < infos.size(); start += batchSize)
 			{
-				ClassNode clientClass = getClassFromJar(info.name, clientJar);
-				ClassNode serverClass = getClassFromJar(info.name, serverJar);
+				List<ClassInfo> batch = infos.subList(start, Math.min(start + batchSize, infos.size()));
 				
-				for (FieldInfo field : info.fields.values())
-				{
-					if (field.onClientServer == SERVER)
-					{
-						FieldNode serverField = null;
-						for (FieldNode fn : (List<FieldNode>)serverClass.fields)
+				List<Callable<byte[]>> tasks = new ArrayList<Callable<byte[]>>(batch.size());
+				for (final ClassInfo info : batch) {
+					tasks.add(new Callable<byte[]>() {
+						@Override
+						public byte[] call()
 						{
-							if (fn.name.equals(field.name)) { serverField = fn; break; }
+							return processClass(info, clientJar, serverJar);
 						}
-						
-						if (serverField.visibleAnnotations == null) serverField.visibleAnnotations = new ArrayList();
-						serverField.visibleAnnotations.add(new AnnotationNode("Lnet/fybertech/meddleapi/side/ServerOnly;"));
-						clientClass.fields.add(serverField);
-					}
-					else if (field.onClientServer == CLIENT)
-					{
-						FieldNode clientField = null;
-						for (FieldNode fn : (List<FieldNode>)clientClass.fields)
-						{
-							if (fn.name.equals(field.name)) { clientField = fn; break; }
-						}
-						
-						if (clientField.visibleAnnotations == null) clientField.visibleAnnotations = new ArrayList();
-						clientField.visibleAnnotations.add(new AnnotationNode("Lnet/fybertech/meddleapi/side/ClientOnly;"));
-					}
+					});
 				}
 				
-				for (MethodInfo method : info.methods.values())
-				{
-					if (method.onClientServer == SERVER)
-					{
-						MethodNode serverMethod = null;
-						for (MethodNode fn : (List<MethodNode>)serverClass.methods)
-						{
-							if (fn.name.equals(method.name) && fn.desc.equals(method.desc)) { serverMethod = fn; break; }
-						}
-						
-						if (serverMethod.visibleAnnotations == null) serverMethod.visibleAnnotations = new ArrayList();
-						serverMethod.visibleAnnotations.add(new AnnotationNode("Lnet/fybertech/meddleapi/side/ServerOnly;"));
-						clientClass.methods.add(serverMethod);
-					}
-					else if (method.onClientServer == CLIENT)
-					{
-						MethodNode clientMethod = null;
-						for (MethodNode fn : (List<MethodNode>)clientClass.methods)
-						{
-							if (fn.name.equals(method.name) && fn.desc.equals(method.desc)) { clientMethod = fn; break; }
-						}
-						
-						if (clientMethod.visibleAnnotations == null) clientMethod.visibleAnnotations = new ArrayList();
-						clientMethod.visibleAnnotations.add(new AnnotationNode("Lnet/fybertech/meddleapi/side/ClientOnly;"));						
+				List<Future<byte[]>> results = null;
+				if (executor != null) {
+					try {
+						results = executor.invokeAll(tasks);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
 					}
 				}
 				
-				ClassWriter writer = new ClassWriter(Opcodes.ASM4);
-				clientClass.accept(writer);
-				//writeToFile(outputFilename + File.separator + info.name + ".class", writer.toByteArray());
-				try {
-					outputJar.putNextEntry(new ZipEntry(info.name + ".class"));
-					outputJar.write(writer.toByteArray());
-				}
-				catch (IOException e) {
-					e.printStackTrace();
+				for (int n = 0; n < batch.size(); n++)
+				{
+					ClassInfo info = batch.get(n);
+					try {
+						byte[] classData = results != null ? results.get(n).get() : tasks.get(n).call();
+						if (classData != null) writeClass(outputJar, info.name, classData);
+						else copyFile(outputJar, info.name + ".class", clientSource, clientJar);
+					} catch (Exception e) {
+						System.err.println("Error merging " + info.name);
+						e.printStackTrace();
+					}
+					
+					classes.remove(info.name);
+					info.fields.clear();
+					info.methods.clear();
+					info.clientEntry = info.serverEntry = null;
 				}
-			}			
+			}
 		}
-		
-		
-		try {
-			clientJar.close();
-			serverJar.close();
-			outputJar.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+		finally {
+			if (executor != null) executor.shutdown();
 		}
 	}
 	
 	
+	/**
+	 * Clears everything discovered, so another pair of jars can be merged.
+	 */
+	public static void reset()
+	{
+		classes.clear();
+		miscFiles.clear();
+	}
+	
+	
 	public static void main(String[] args)
 	{			
 		String clientJarFilename = null;
@@ -437,6 +573,7 @@ public class MergeJars
 			{
 				if (nextVal == 1) clientJarFilename = arg;
 				else if (nextVal == 2) serverJarFilename = arg;
+				else if (nextVal == 4) threads = Integer.parseInt(arg);
 				else outputFilename = arg;
 								
 				nextVal = 0;
@@ -446,6 +583,7 @@ public class MergeJars
 			if (arg.equalsIgnoreCase("-c")) nextVal = 1;
 			else if (arg.equalsIgnoreCase("-s")) nextVal = 2;
 			else if (arg.equalsIgnoreCase("-o")) nextVal = 3;
+			else if (arg.equalsIgnoreCase("-t")) nextVal = 4;
 			else if (arg.equalsIgnoreCase("-q")) quiet = true;
 		}	
 		
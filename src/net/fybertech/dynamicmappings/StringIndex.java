@@ -0,0 +1,119 @@
+package net.fybertech.dynamicmappings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Jar-wide inverted index from constant pool strings to the classes that
+ * contain them.
+ *
+ * Strings are trimmed of whitespace, same as searchConstantPoolForStrings.
+ * Classes from library packages are left out.
+ */
+public class StringIndex
+{
+	/** Trimmed string -> sorted names of classes containing it */
+	private final Map<String, String[]> postings;
+	private final int classCount;
+
+
+	private StringIndex(Map<String, String[]> postings, int classCount)
+	{
+		this.postings = postings;
+		this.classCount = classCount;
+	}
+
+
+	/**
+	 * Builds the index from the specified classes.
+	 *
+	 * @param classNames - Names of the classes to index, usually every class in the jar.
+	 * @return The index.
+	 */
+	public static StringIndex build(Iterable<String> classNames)
+	{
+		Map<String, List<String>> lists = new HashMap<String, List<String>>();
+		int classCount = 0;
+
+		for (String className : classNames)
+		{
+			if (DynamicMappings.startsWithAny(className, DynamicMappings.classSearchExceptions)) continue;
+
+			ConstantPoolIndex index = ConstantPoolIndex.get(className);
+			if (index == null) continue;
+			classCount++;
+
+			// Constant pool strings are already unique, but trimming can merge some
+			for (String s : new LinkedHashSet<String>(Arrays.asList(index.trimmedStrings))) {
+				List<String> list = lists.get(s);
+				if (list == null) { list = new ArrayList<String>(2); lists.put(s, list); }
+				list.add(className);
+			}
+		}
+
+		Map<String, String[]> postings = new HashMap<String, String[]>(lists.size() * 2);
+		for (Map.Entry<String, List<String>> entry : lists.entrySet()) {
+			String[] classes = entry.getValue().toArray(new String[entry.getValue().size()]);
+			Arrays.sort(classes);
+			postings.put(entry.getKey(), classes);
+		}
+
+		return new StringIndex(postings, classCount);
+	}
+
+
+	/**
+	 * Finds every indexed class whose constant pool contains all of the
+	 * specified strings.
+	 *
+	 * @param strings - The strings to find, trimmed before matching.
+	 * @return The matching class names, or an empty set if there are none.
+	 */
+	public Set<String> findClassesWithStrings(String... strings)
+	{
+		if (strings.length < 1) return new LinkedHashSet<String>();
+
+		List<String[]> lists = new ArrayList<String[]>(strings.length);
+		for (String s : strings) {
+			String[] classes = postings.get(s.trim());
+			if (classes == null) return new LinkedHashSet<String>();
+			lists.add(classes);
+		}
+
+		// Intersect starting from the rarest string so the candidate set stays small
+		Collections.sort(lists, new Comparator<String[]>() {
+			@Override
+			public int compare(String[] a, String[] b) {
+				return a.length - b.length;
+			}
+		});
+
+		Set<String> output = new LinkedHashSet<String>(Arrays.asList(lists.get(0)));
+		for (int n = 1; n < lists.size() && !output.isEmpty(); n++) {
+			String[] classes = lists.get(n);
+			for (Iterator<String> it = output.iterator(); it.hasNext();) {
+				if (Arrays.binarySearch(classes, it.next()) < 0) it.remove();
+			}
+		}
+
+		return output;
+	}
+
+
+	/**
+	 * @return The number of classes that were indexed.
+	 */
+	public int getClassCount()
+	{
+		return classCount;
+	}
+}
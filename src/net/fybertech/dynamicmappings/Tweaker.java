@@ -11,12 +11,19 @@ import net.minecraft.launchwrapper.LaunchClassLoader;
 @MeddleMod(id="dynamicmappings", name="Dynamic Mappings", author="FyberOptic", version="028")
 public class Tweaker implements ITweaker
 {
+	/** Set -Ddynamicmappings.nocache=true to always regenerate mappings */
+	public static boolean useMappingsCache = !Boolean.getBoolean("dynamicmappings.nocache");
 
 	@Override
 	public void acceptOptions(List<String> args, File gameDir, File assetsDir, String profile)
 	{
 		DynamicMappings.discoverMapperConfigs();
-		DynamicMappings.generateClassMappings();
+
+		if (useMappingsCache) {
+			if (gameDir == null) gameDir = new File(".");
+			DynamicMappings.generateClassMappings(new File(gameDir, "dynamicmappings.cache"));
+		}
+		else DynamicMappings.generateClassMappings();
 	}
 
 	@Override
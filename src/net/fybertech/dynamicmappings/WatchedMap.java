@@ -0,0 +1,137 @@
+package net.fybertech.dynamicmappings;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Thread-safe map that runs a callback after every change made to it,
+ * including changes made through its entry set and other views.
+ *
+ * Null keys and values are allowed, as with the HashMaps these replace.
+ * Entries handed out by the views are read-only; use put to change a value.
+ */
+public class WatchedMap<K, V> extends AbstractMap<K, V>
+{
+	/** Stands in for null keys and values, which ConcurrentHashMap can't hold */
+	private static final Object NULL = new Object();
+
+	private final ConcurrentHashMap<Object, Object> map = new ConcurrentHashMap<Object, Object>();
+	private final Runnable onChange;
+
+
+	public WatchedMap(Runnable onChange)
+	{
+		this.onChange = onChange;
+	}
+
+
+	private static Object mask(Object o)
+	{
+		return o != null ? o : NULL;
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private static <T> T unmask(Object o)
+	{
+		return o != NULL ? (T)o : null;
+	}
+
+
+	@Override
+	public V get(Object key)
+	{
+		return unmask(map.get(mask(key)));
+	}
+
+
+	@Override
+	public boolean containsKey(Object key)
+	{
+		return map.containsKey(mask(key));
+	}
+
+
+	@Override
+	public V put(K key, V value)
+	{
+		Object old = map.put(mask(key), mask(value));
+		onChange.run();
+		return unmask(old);
+	}
+
+
+	@Override
+	public V remove(Object key)
+	{
+		Object old = map.remove(mask(key));
+		if (old != null) onChange.run();
+		return unmask(old);
+	}
+
+
+	@Override
+	public int size()
+	{
+		return map.size();
+	}
+
+
+	@Override
+	public void clear()
+	{
+		map.clear();
+		onChange.run();
+	}
+
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet()
+	{
+		return new AbstractSet<Map.Entry<K, V>>() {
+			@Override
+			public Iterator<Map.Entry<K, V>> iterator()
+			{
+				final Iterator<Map.Entry<Object, Object>> iterator = map.entrySet().iterator();
+				return new Iterator<Map.Entry<K, V>>() {
+					@Override
+					public boolean hasNext()
+					{
+						return iterator.hasNext();
+					}
+
+					@Override
+					public Map.Entry<K, V> next()
+					{
+						Map.Entry<Object, Object> entry = iterator.next();
+						return new AbstractMap.SimpleImmutableEntry<K, V>(WatchedMap.<K>unmask(entry.getKey()), WatchedMap.<V>unmask(entry.getValue()));
+					}
+
+					@Override
+					public void remove()
+					{
+						iterator.remove();
+						onChange.run();
+					}
+				};
+			}
+
+			@Override
+			public int size()
+			{
+				return map.size();
+			}
+
+			@Override
+			public void clear()
+			{
+				WatchedMap.this.clear();
+			}
+		};
+	}
+}
@@ -417,51 +417,19 @@ public class ClientMappings extends MappingsBase
 			if (foundMethod) break;
 		}
 
-		String guiIngame = null;
-		String guiConnecting = null;
-		String guiMainMenu = null;
-		String loadingScreenRenderer = null;
-
-		for (String className : postStartupClasses) {			
-			if (guiIngame == null && DynamicMappings.searchConstantPoolForStrings(className, "textures/misc/vignette.png", "bossHealth")) {
-				guiIngame = className;
-				continue;
-			}
-
-			if (guiConnecting == null && DynamicMappings.searchConstantPoolForStrings(className, "Connecting to {}, {}", "connect.connecting")) {
-				guiConnecting = className;
-				continue;
-			}
-
-			if (guiMainMenu == null && DynamicMappings.searchConstantPoolForStrings(className, "texts/splashes.txt", "Merry X-mas!")) {
-				guiMainMenu = className;
-				continue;
-			}
-
-			// TODO - Figure out a way to scan for the class
-			//if (loadingScreenRenderer == null
-		}
-
-		String renderGlobal = null;
-		String blockRendererDispatcher = null;
-		String textureMap = null;
-		
-		for (String className : startupClasses) {
-			if (textureMap == null && DynamicMappings.searchConstantPoolForStrings(className, "missingno", "textures/atlas/blocks.png")) {
-				textureMap = className;
-				continue;
-			}
-			
-			if (renderGlobal == null && DynamicMappings.searchConstantPoolForStrings(className, "textures/environment/moon_phases.png", "Exception while adding particle")) {
-				renderGlobal = className;
-				continue;
-			}
-			
-			if (blockRendererDispatcher == null && DynamicMappings.searchConstantPoolForStrings(className, "Tesselating block in world", "Block being tesselated")) {
-				blockRendererDispatcher = className;
-				continue;
-			}
-		}
+		// Each class can only fill one role, so it's taken out of the candidates once matched
+		String guiIngame = findClassWithStrings(postStartupClasses, "textures/misc/vignette.png", "bossHealth");
+		postStartupClasses.remove(guiIngame);
+		String guiConnecting = findClassWithStrings(postStartupClasses, "Connecting to {}, {}", "connect.connecting");
+		postStartupClasses.remove(guiConnecting);
+		String guiMainMenu = findClassWithStrings(postStartupClasses, "texts/splashes.txt", "Merry X-mas!");
+		// TODO - Figure out a way to scan for loadingScreenRenderer
+
+		String textureMap = findClassWithStrings(startupClasses, "missingno", "textures/atlas/blocks.png");
+		startupClasses.remove(textureMap);
+		String renderGlobal = findClassWithStrings(startupClasses, "textures/environment/moon_phases.png", "Exception while adding particle");
+		startupClasses.remove(renderGlobal);
+		String blockRendererDispatcher = findClassWithStrings(startupClasses, "Tesselating block in world", "Block being tesselated");
 		
 		if (textureMap != null) {
 			addClassMapping("net/minecraft/client/renderer/texture/TextureMap", textureMap);
@@ -2529,13 +2497,8 @@ public class ClientMappings extends MappingsBase
 			if (args.length != 1 || args[0].getSort() != Type.OBJECT) continue;
 			matches.add(args[0].getClassName());
 		}
-		for (String className : matches) {
-			if (DynamicMappings.searchConstantPoolForStrings(className, "Solid", "Mipped Cutout", "Cutout", "Translucent")) {
-				addClassMapping("net/minecraft/util/EnumWorldBlockLayer", className);
-				enumWorldBlockLayer_name = className;
-				break;
-			}
-		}
+		enumWorldBlockLayer_name = findClassWithStrings(matches, "Solid", "Mipped Cutout", "Cutout", "Translucent");
+		if (enumWorldBlockLayer_name != null) addClassMapping("net/minecraft/util/EnumWorldBlockLayer", enumWorldBlockLayer_name);
 		List<MethodNode> methods = DynamicMappings.getMatchingMethods(renderGlobal, null, "(L" + enumWorldBlockLayer_name + ";)V");
 		if (methods.size() == 1) {
 			renderBlockLayer = methods.get(0);
@@ -1,14 +1,12 @@
 package net.fybertech.dynamicmappings.mappers;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 import net.fybertech.dynamicmappings.DynamicMappings;
+import net.fybertech.dynamicmappings.MemberRef;
 
-import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.FieldInsnNode;
@@ -48,6 +46,24 @@ public class MappingsBase
 		return DynamicMappings.searchConstantPoolForStrings(className,  matchStrings);
 	}
 	
+	public Set<String> findClassesWithStrings(String... matchStrings)
+	{
+		return DynamicMappings.findClassesWithStrings(matchStrings);
+	}
+	
+	/**
+	 * @return The first of the candidates containing all of the strings, or
+	 * null.  Only the candidates are searched, through their cached constant
+	 * pool indexes, so the mapper can still be reused by IncrementalMappings.
+	 */
+	public String findClassWithStrings(Iterable<String> candidates, String... matchStrings)
+	{
+		for (String className : candidates) {
+			if (DynamicMappings.searchConstantPoolForStrings(className, matchStrings)) return className;
+		}
+		return null;
+	}
+	
 	public List<MethodNode> getMatchingMethods(ClassNode cn, String name, String desc)
 	{
 		return DynamicMappings.getMatchingMethods(cn,  name,  desc);
@@ -213,46 +229,16 @@ public class MappingsBase
 	
 	
 	public boolean searchConstantPoolForFields(String className, String...fields)
-	{		
-		className = className.replace(".", "/");
-		InputStream stream = DynamicMappings.class.getClassLoader().getResourceAsStream(className + ".class");
-		if (stream == null) return false;
-
-		ClassReader reader = null;
-		try {
-			reader = new ClassReader(stream);
-		} catch (IOException e) { return false; }
-
-		int itemCount = reader.getItemCount();
-		char[] buffer = new char[reader.getMaxStringLength()];
-
-		int matches = 0;
-
-		for (int n = 1; n < itemCount; n++)	{
-			int pos = reader.getItem(n);
-			if (pos == 0 || reader.b[pos - 1] != 9) continue;
-			String owner = reader.readClass(pos, buffer);
-			pos = reader.getItem(reader.readUnsignedShort(pos + 2));
-			String name = reader.readUTF8(pos, buffer);
-			String desc = reader.readUTF8(pos + 2, buffer);
-
-			String fieldRef = owner + " " + name + " " + desc;
-			
-			for (int n2 = 0; n2 < fields.length; n2++) {
-				if (fieldRef.equals(fields[n2].replace(".", "/"))) { matches++; break; }
-			}
-		}
-
-		return (matches == fields.length);		
+	{
+		return DynamicMappings.searchConstantPoolForFields(className, fields);
 	}
 	
 	
 	public String getSoundField(String sound)
 	{
-		String full = getSoundFieldFull(sound);
-		if (full == null) return null;
-		
-		return full.split(" ")[1];
+		sound = sound.replace(".", "_");
+		MemberRef full = DynamicMappings.getFieldMapping(new MemberRef("net/minecraft/init/Sounds", sound, "Lnet/minecraft/util/Sound;"));
+		return full != null ? full.name : null;
 		
 	}
 	
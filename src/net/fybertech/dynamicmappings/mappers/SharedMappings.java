@@ -40,6 +40,17 @@ public class SharedMappings extends MappingsBase {
 		ClassNode server = getClassNode(getClassMapping("net/minecraft/server/MinecraftServer"));
 		if (server == null) return false;
 
+		String[] matchStrings = new String[] { "Getting biome", "chunkCheck", "Level name", "Chunk stats" };
+
+		Set<String> matches = findClassesWithStrings(matchStrings);
+		if (matches.isEmpty()) return false;
+
+		// Usually World is the only class with all of them, so there's no need to load MinecraftServer's interfaces
+		if (matches.size() == 1) {
+			addClassMapping("net/minecraft/world/World", getClassNode(matches.iterator().next()));
+			return true;
+		}
+
 		List<String> potentialClasses = new ArrayList<String>();
 
 		// Fetch all obfuscated classes used inside MinecraftServer's interfaces
@@ -58,12 +69,10 @@ public class SharedMappings extends MappingsBase {
 			}
 		}
 
-		String[] matchStrings = new String[] { "Getting biome", "chunkCheck", "Level name", "Chunk stats" };
-
-		// Search constant pools of potential classes for strings matching the list above
+		// Otherwise take the first potential class with all the strings
 		for (String className : potentialClasses)
 		{
-			if (searchConstantPoolForStrings(className, matchStrings))
+			if (matches.contains(className))
 			{
 				ClassNode worldClass = getClassNode(className);
 				addClassMapping("net/minecraft/world/World", worldClass);
@@ -197,6 +206,17 @@ public class SharedMappings extends MappingsBase {
 		ClassNode worldClass = getClassNodeFromMapping("net/minecraft/world/World");
 		if (worldClass == null) return false;
 
+		String[] matchStrings = new String[] { "Accessed Blocks before Bootstrap!", "air", "stone" };
+
+		Set<String> matches = findClassesWithStrings(matchStrings);
+		if (matches.isEmpty()) return false;
+
+		// Usually Blocks is the only class with all of them, so there's no need to go through World's code
+		if (matches.size() == 1) {
+			addClassMapping("net/minecraft/init/Blocks", getClassNode(matches.iterator().next()));
+			return true;
+		}
+
 		Set<String> potentialClasses = new HashSet<String>();
 
 		// Discover and filter all static fields accessed in World's methods
@@ -213,11 +233,9 @@ public class SharedMappings extends MappingsBase {
 			}
 		}
 
-		String[] matchStrings = new String[] { "Accessed Blocks before Bootstrap!", "air", "stone" };
-
 		// Find net.minecraft.init.Blocks from what's left
 		for (String className : potentialClasses) {
-			if (searchConstantPoolForStrings(className, matchStrings))	{
+			if (matches.contains(className)) {
 				ClassNode blocksClass = getClassNode(className);
 				addClassMapping("net/minecraft/init/Blocks", blocksClass);
 				return true;
@@ -6788,7 +6806,7 @@ public class SharedMappings extends MappingsBase {
 			if (t.getSort() != Type.OBJECT) continue;
 			String className = t.getClassName();
 			if (className.contains(".")) continue;
-			if (DynamicMappings.reverseClassMappings.containsKey(className)) continue;
+			if (DynamicMappings.getReverseClassMapping(className) != null) continue;
 			if (searchConstantPoolForStrings(className, "buildingBlocks", "decorations", "redstone")) {
 				addClassMapping("net/minecraft/creativetab/CreativeTabs", className);
 				creativeTab = getClassNode(className);
@@ -10884,7 +10902,7 @@ public class SharedMappings extends MappingsBase {
 		
 		ClassNode blockBush = getClassNode(lilypad.superName);
 		if (blockBush != null) {
-			Set<String> children = DynamicMappings.classesExtendFrom.get(blockBush.name);
+			Set<String> children = DynamicMappings.getDirectChildClasses(blockBush.name);
 			if (children.contains(tallGrass.name) && children.contains(mushroom.name)) {
 				addClassMapping("net/minecraft/block/BlockBush", blockBush.name);
 			}